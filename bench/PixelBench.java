@@ -0,0 +1,445 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks for the pixel operations, canvas compositing and export
+ * paths, in the style of JMH average-time mode. Each invocation gets fresh
+ * input from an untimed setup step, so in-place operations such as fills and
+ * dithers always see the same pixels. Results are written as JMH-compatible
+ * JSON so two runs can be compared.
+ *
+ * <pre>
+ * javac -d out src/*.java &amp;&amp; javac -cp out -d out bench/*.java
+ * java -cp out PixelBench [-s 32,256,1024] [-f regex] [-wi 3] [-i 5] [-t ms] [-o results.json]
+ * java -cp out PixelBench -c baseline.json results.json
+ * </pre>
+ */
+public class PixelBench {
+    private static final int[] DEFAULT_SIZES = { 32, 64, 128, 256, 512, 1024, 2048, 4096 };
+    private static final int ANIMATION_FRAMES = 4;
+    private static final Color FILL = new Color(200, 40, 60);
+    // two-sided 99.9% Student t quantiles for 1..10 degrees of freedom, as JMH reports scoreError
+    private static final double[] T_999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+
+    /** One measured call; setup runs untimed before every invocation. */
+    interface Case {
+        default void setup() throws Exception {
+        }
+
+        Object run() throws Exception;
+    }
+
+    interface CaseFactory {
+        Case create(int size) throws Exception;
+    }
+
+    private record Benchmark(String name, CaseFactory factory) {
+    }
+
+    private record Result(String name, int size, double[] scores) {
+        double mean() {
+            double sum = 0;
+            for (double s : scores)
+                sum += s;
+            return sum / scores.length;
+        }
+
+        double error() {
+            int n = scores.length;
+            if (n < 2)
+                return Double.NaN;
+            double mean = mean();
+            double var = 0;
+            for (double s : scores)
+                var += (s - mean) * (s - mean);
+            double t = n - 1 <= T_999.length ? T_999[n - 2] : 3.29;
+            return t * Math.sqrt(var / (n - 1)) / Math.sqrt(n);
+        }
+    }
+
+    static volatile Object sink;
+
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private long iterationNanos = 500_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = DEFAULT_SIZES;
+        Pattern filter = null;
+        File output = null;
+        PixelBench bench = new PixelBench();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-s" -> sizes = parseSizes(args[++i]);
+                    case "-f" -> filter = Pattern.compile(args[++i]);
+                    case "-wi" -> bench.warmupIterations = Math.max(0, Integer.parseInt(args[++i]));
+                    case "-i" -> bench.iterations = Math.max(1, Integer.parseInt(args[++i]));
+                    case "-t" -> bench.iterationNanos = Math.max(1, Long.parseLong(args[++i])) * 1_000_000L;
+                    case "-o" -> output = new File(args[++i]);
+                    case "-c" -> {
+                        compare(new File(args[i + 1]), new File(args[i + 2]));
+                        return;
+                    }
+                    default -> throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Usage: PixelBench [-s sizes] [-f regex] [-wi n] [-i n] [-t ms] [-o file.json]");
+            System.err.println("       PixelBench -c baseline.json results.json");
+            System.exit(2);
+        }
+
+        List<Result> results = new ArrayList<>();
+        File work = Files.createTempDirectory("pixelbench").toFile();
+        try {
+            for (Benchmark b : benchmarks(work)) {
+                if (filter != null && !filter.matcher(b.name()).find())
+                    continue;
+                for (int size : sizes) {
+                    Result r = bench.measure(b, size);
+                    results.add(r);
+                    System.out.printf(Locale.ROOT, "%-34s %5d  %12.4f +- %.4f ms/op%n", b.name(), size, r.mean(), r.error());
+                }
+            }
+        } finally {
+            deleteTree(work);
+        }
+        if (output != null) {
+            Files.writeString(output.toPath(), toJson(results, bench), StandardCharsets.UTF_8);
+            System.out.println("Wrote " + output);
+        }
+    }
+
+    private static List<Benchmark> benchmarks(File work) {
+        List<Benchmark> list = new ArrayList<>();
+        list.add(new Benchmark("PixelOps.floodFill", size -> {
+            Color[][] base = new Color[size][size];
+            return new LayerCase(base) {
+                public Object run() {
+                    PixelOps.floodFill(layer, size / 2, size / 2, FILL);
+                    return layer;
+                }
+            };
+        }));
+        list.add(new Benchmark("PixelOps.blurGaussian", size -> new LayerCase(pattern(size, 1)) {
+            public Object run() {
+                PixelOps.blurGaussian(layer, 3);
+                return layer;
+            }
+        }));
+        list.add(new Benchmark("PixelOps.blurMotion", size -> new LayerCase(pattern(size, 1)) {
+            public Object run() {
+                PixelOps.blurMotion(layer, 30, 6);
+                return layer;
+            }
+        }));
+        list.add(new Benchmark("PixelOps.blurBrush", size -> new LayerCase(pattern(size, 1)) {
+            public Object run() {
+                PixelOps.blurBrush(layer, size / 2, size / 2, 8);
+                return layer;
+            }
+        }));
+        list.add(new Benchmark("PixelOps.ditherFloydSteinberg", size -> new LayerCase(pattern(size, 1)) {
+            public Object run() {
+                PixelOps.ditherFloydSteinberg(layer, PixelConstants.CANVAS_BG);
+                return layer;
+            }
+        }));
+        list.add(new Benchmark("PixelOps.ditherOrdered", size -> new LayerCase(pattern(size, 1)) {
+            public Object run() {
+                PixelOps.ditherOrdered(layer, PixelConstants.CANVAS_BG);
+                return layer;
+            }
+        }));
+        list.add(new Benchmark("PixelOps.applyMove", size -> {
+            Color[][] base = pattern(size, 1);
+            PixelOps.MoveState state = PixelOps.beginMove(base, 0, 0);
+            return new LayerCase(base) {
+                public Object run() {
+                    PixelOps.applyMove(layer, state, size / 3, size / 5);
+                    return layer;
+                }
+            };
+        }));
+        list.add(new Benchmark("PixelOps.applyRotate", size -> {
+            Color[][] base = pattern(size, 1);
+            PixelOps.RotateState state = PixelOps.beginRotate(base, size / 2, size / 2, 0);
+            return new LayerCase(base) {
+                public Object run() {
+                    PixelOps.applyRotate(layer, state, size / 2 + 10, size / 2 + 7);
+                    return layer;
+                }
+            };
+        }));
+        list.add(new Benchmark("PixelCanvas.paint", size -> {
+            PixelCanvas canvas = canvas(size);
+            BufferedImage target = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            return () -> {
+                Graphics2D g = target.createGraphics();
+                try {
+                    canvas.paintComponent(g);
+                } finally {
+                    g.dispose();
+                }
+                return target;
+            };
+        }));
+        list.add(new Benchmark("PixelCanvas.toImage", size -> {
+            PixelCanvas canvas = canvas(size);
+            return canvas::toImage;
+        }));
+        list.add(new Benchmark("PixelOps.compositeImage", size -> {
+            Color[][][] layers = { pattern(size, 1), sparse(size, 2), sparse(size, 3) };
+            return () -> PixelOps.compositeImage(layers, size, size);
+        }));
+        list.add(new Benchmark("FileHandler.saveGif", size -> {
+            PixelArtModel model = animated(size);
+            PixelArtFileHandler handler = new PixelArtFileHandler(model);
+            File gif = new File(work, "bench.gif");
+            return () -> handler.saveGif(gif.getPath(), 12);
+        }));
+        list.add(new Benchmark("FileHandler.saveProject", size -> {
+            File project = new File(work, "save.pxp");
+            return new Case() {
+                PixelArtFileHandler handler;
+
+                // a fresh model and no previous file, so every frame is encoded
+                public void setup() {
+                    project.delete();
+                    handler = new PixelArtFileHandler(animated(size));
+                }
+
+                public Object run() throws IOException {
+                    return handler.saveProject(project.getPath());
+                }
+            };
+        }));
+        list.add(new Benchmark("FileHandler.loadProject", size -> {
+            File project = saved(work, size);
+            return () -> {
+                PixelArtModel model = new PixelArtModel();
+                new PixelArtFileHandler(model).loadProject(project.getPath());
+                return model;
+            };
+        }));
+        list.add(new Benchmark("FileHandler.loadProjectDecodeAll", size -> {
+            File project = saved(work, size);
+            return () -> {
+                PixelArtModel model = new PixelArtModel();
+                new PixelArtFileHandler(model).loadProject(project.getPath());
+                Object last = null;
+                for (List<PixelArtModel.FrameData> frames : model.getLayerFrames()) {
+                    for (PixelArtModel.FrameData frame : frames) {
+                        last = frame.getLayer();
+                    }
+                }
+                return last;
+            };
+        }));
+        return list;
+    }
+
+    /** Restores a working copy of the fixture before every invocation. */
+    private abstract static class LayerCase implements Case {
+        private final Color[][] base;
+        Color[][] layer;
+
+        LayerCase(Color[][] base) {
+            this.base = base;
+        }
+
+        @Override
+        public void setup() {
+            if (layer == null)
+                layer = new Color[base.length][];
+            for (int r = 0; r < base.length; r++) {
+                layer[r] = base[r].clone();
+            }
+        }
+    }
+
+    private Result measure(Benchmark b, int size) throws Exception {
+        Case c = b.factory().create(size);
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(c);
+        }
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            scores[i] = iteration(c);
+        }
+        sink = null;
+        return new Result(b.name(), size, scores);
+    }
+
+    // Runs invocations until the time budget is spent (at least one); returns ms/op of the timed part
+    private double iteration(Case c) throws Exception {
+        long deadline = System.nanoTime() + iterationNanos;
+        long measured = 0;
+        int ops = 0;
+        do {
+            c.setup();
+            long t = System.nanoTime();
+            Object result = c.run();
+            measured += System.nanoTime() - t;
+            sink = result;
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return measured / 1e6 / ops;
+    }
+
+    // Fixtures
+
+    // Opaque noise in a small palette with a few empty bands, so fills and composites have real edges
+    private static Color[][] pattern(int size, long seed) {
+        Color[] palette = { new Color(20, 20, 30), new Color(90, 140, 200), new Color(230, 210, 120),
+                new Color(160, 60, 80), new Color(60, 170, 90), new Color(255, 255, 255, 128) };
+        Color[][] layer = new Color[size][size];
+        long s = seed * 0x9E3779B97F4A7C15L;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if ((r / 8) % 5 == 4)
+                    continue;
+                s = s * 6364136223846793005L + 1442695040888963407L;
+                layer[r][c] = palette[(int) ((s >>> 33) % palette.length)];
+            }
+        }
+        return layer;
+    }
+
+    private static Color[][] sparse(int size, long seed) {
+        Color[][] full = pattern(size, seed);
+        Color[][] layer = new Color[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (((r + c) & 3) == 0)
+                    layer[r][c] = full[r][c];
+            }
+        }
+        return layer;
+    }
+
+    private static PixelCanvas canvas(int size) {
+        Color[][][] layers = { pattern(size, 1), sparse(size, 2), sparse(size, 3) };
+        return new PixelCanvas(size, size, 1, null, null, () -> ToolMode.BRUSH, null, null, () -> 0, layers.length,
+                null, null, false, null, layers);
+    }
+
+    // Active layer animated with distinct frames, the other layers static
+    private static PixelArtModel animated(int size) {
+        PixelArtModel model = new PixelArtModel(size, size);
+        List<Color[][]> frames = new ArrayList<>();
+        for (int i = 0; i < ANIMATION_FRAMES; i++) {
+            frames.add(pattern(size, i + 1));
+        }
+        model.replaceActiveLayerFrames(frames);
+        model.setLayer(1, sparse(size, 7));
+        return model;
+    }
+
+    private static File saved(File work, int size) throws IOException {
+        File project = new File(work, "load" + size + ".pxp");
+        if (!project.exists()) {
+            new PixelArtFileHandler(animated(size)).saveProject(project.getPath());
+        }
+        return project;
+    }
+
+    private static int[] parseSizes(String list) {
+        String[] parts = list.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+            if (sizes[i] <= 0)
+                throw new IllegalArgumentException("size must be positive");
+        }
+        return sizes;
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+
+    // Results
+
+    private static String toJson(List<Result> results, PixelBench bench) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            double error = r.error();
+            sb.append("  {\n");
+            sb.append("    \"benchmark\": \"").append(r.name()).append("\",\n");
+            sb.append("    \"mode\": \"avgt\",\n    \"threads\": 1,\n    \"forks\": 1,\n");
+            sb.append("    \"jvm\": \"").append(System.getProperty("java.home").replace("\\", "\\\\")).append("\",\n");
+            sb.append("    \"jdkVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+            sb.append("    \"warmupIterations\": ").append(bench.warmupIterations).append(",\n");
+            sb.append("    \"warmupTime\": \"").append(bench.iterationNanos / 1_000_000).append(" ms\",\n");
+            sb.append("    \"measurementIterations\": ").append(bench.iterations).append(",\n");
+            sb.append("    \"measurementTime\": \"").append(bench.iterationNanos / 1_000_000).append(" ms\",\n");
+            sb.append("    \"params\": {\"size\": \"").append(r.size()).append("\"},\n");
+            sb.append("    \"primaryMetric\": {\n");
+            sb.append("      \"score\": ").append(num(r.mean())).append(",\n");
+            sb.append("      \"scoreError\": ").append(num(error)).append(",\n");
+            sb.append("      \"scoreConfidence\": [").append(num(r.mean() - error)).append(", ")
+                    .append(num(r.mean() + error)).append("],\n");
+            sb.append("      \"scoreUnit\": \"ms/op\",\n");
+            sb.append("      \"rawData\": [[");
+            for (int k = 0; k < r.scores().length; k++) {
+                sb.append(k == 0 ? "" : ", ").append(num(r.scores()[k]));
+            }
+            sb.append("]]\n    },\n    \"secondaryMetrics\": {}\n  }").append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("]\n").toString();
+    }
+
+    private static String num(double v) {
+        return Double.isFinite(v) ? String.format(Locale.ROOT, "%.6f", v) : "\"NaN\"";
+    }
+
+    private static final Pattern ENTRY = Pattern.compile(
+            "\"benchmark\"\\s*:\\s*\"([^\"]+)\".*?\"size\"\\s*:\\s*\"(\\d+)\".*?\"score\"\\s*:\\s*([-0-9.eE]+)",
+            Pattern.DOTALL);
+
+    // Reads the scores back from our own (or JMH's) JSON; keys are "benchmark size"
+    private static Map<String, Double> readScores(File file) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        Matcher m = ENTRY.matcher(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+        while (m.find()) {
+            scores.put(m.group(1) + " " + m.group(2), Double.parseDouble(m.group(3)));
+        }
+        return scores;
+    }
+
+    private static void compare(File baseline, File current) throws IOException {
+        Map<String, Double> before = readScores(baseline);
+        Map<String, Double> after = readScores(current);
+        for (Map.Entry<String, Double> e : after.entrySet()) {
+            Double old = before.get(e.getKey());
+            if (old == null) {
+                System.out.printf(Locale.ROOT, "%-34s %12.4f ms/op  (new)%n", e.getKey(), e.getValue());
+            } else {
+                double change = old == 0 ? 0 : (e.getValue() - old) / old * 100;
+                System.out.printf(Locale.ROOT, "%-34s %12.4f -> %12.4f ms/op  %+7.1f%%%n", e.getKey(), old, e.getValue(), change);
+            }
+        }
+    }
+}
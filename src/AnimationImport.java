@@ -0,0 +1,290 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Node;
+
+/**
+ * Decodes sprite sheets and animated GIFs into layer frames. Pixel conversion
+ * and GIF decoding run on a pool sized to the CPU count; only the GIF
+ * disposal pass, where each frame depends on the previous canvas, is sequential.
+ */
+class AnimationImport {
+    private static final int DEFAULT_DELAY_CS = 10;
+    // a frame held for a long time is repeated at the base delay, but not without bound
+    private static final int MAX_REPEAT = 100;
+    private static final int DISPOSE_NONE = 0;
+    private static final int DISPOSE_BACKGROUND = 1;
+    private static final int DISPOSE_PREVIOUS = 2;
+
+    final int width;
+    final int height;
+    final List<Color[][]> frames;
+    /** Delay of one timeline step, in hundredths of a second. */
+    final int delayCs;
+
+    private AnimationImport(int width, int height, List<Color[][]> frames, int delayCs) {
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.delayCs = delayCs;
+    }
+
+    /** Splits a sheet into w x h cells, row by row; trailing empty cells are dropped. */
+    static AnimationImport readSheet(File file, int cellW, int cellH) throws IOException {
+        if (cellW <= 0 || cellH <= 0)
+            throw new IOException("Cell size must be positive");
+        BufferedImage img = ImageIO.read(file);
+        if (img == null)
+            throw new IOException("Unsupported image");
+        int across = img.getWidth() / cellW;
+        int down = img.getHeight() / cellH;
+        if (across == 0 || down == 0)
+            throw new IOException("Image is smaller than one " + cellW + "x" + cellH + " cell");
+        int[] argb = PixelOps.argbPixels(img);
+        int stride = img.getWidth();
+        int count = across * down;
+        while (count > 1 && emptyCell(argb, stride, ((count - 1) % across) * cellW, ((count - 1) / across) * cellH, cellW, cellH)) {
+            count--;
+        }
+        Color[][][] layers = new Color[count][][];
+        ExecutorService pool = newPool(count);
+        try {
+            List<Future<?>> jobs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int cell = i;
+                jobs.add(pool.submit(() -> {
+                    Color[][] layer = new Color[cellH][cellW];
+                    int offset = (cell / across) * cellH * stride + (cell % across) * cellW;
+                    PixelOps.readArgb(argb, offset, stride, layer);
+                    layers[cell] = layer;
+                }));
+            }
+            await(jobs);
+        } finally {
+            pool.shutdownNow();
+        }
+        return new AnimationImport(cellW, cellH, Arrays.asList(layers), DEFAULT_DELAY_CS);
+    }
+
+    /**
+     * Decodes every GIF frame onto the logical screen, applying each frame's
+     * disposal method. A frame whose delay is a multiple of the shortest one is
+     * repeated so the timeline keeps its timing at a single frame rate.
+     */
+    static AnimationImport readGif(File file) throws IOException {
+        int count;
+        int screenW;
+        int screenH;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = gifReader(in);
+            try {
+                count = reader.getNumImages(true);
+                IIOMetadataNode screen = child(reader.getStreamMetadata(), "javax_imageio_gif_stream_1.0",
+                        "LogicalScreenDescriptor");
+                screenW = screen != null ? intAttr(screen, "logicalScreenWidth") : 0;
+                screenH = screen != null ? intAttr(screen, "logicalScreenHeight") : 0;
+            } finally {
+                reader.dispose();
+            }
+        }
+        if (count <= 0)
+            throw new IOException("GIF has no frames");
+
+        // decode in contiguous chunks, one reader per chunk: readers are not thread-safe
+        BufferedImage[] images = new BufferedImage[count];
+        int[][] info = new int[count][]; // x, y, disposal, delay
+        int chunks = Math.min(count, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        int per = (count + chunks - 1) / chunks;
+        ExecutorService pool = newPool(chunks);
+        try {
+            List<Future<?>> jobs = new ArrayList<>();
+            for (int start = 0; start < count; start += per) {
+                int from = start;
+                int to = Math.min(count, start + per);
+                jobs.add(pool.submit(() -> {
+                    decodeRange(file, from, to, images, info);
+                    return null;
+                }));
+            }
+            await(jobs);
+
+            if (screenW <= 0 || screenH <= 0) {
+                for (int i = 0; i < count; i++) {
+                    screenW = Math.max(screenW, info[i][0] + images[i].getWidth());
+                    screenH = Math.max(screenH, info[i][1] + images[i].getHeight());
+                }
+            }
+            int base = 0;
+            for (int[] f : info) {
+                if (f[3] > 0)
+                    base = base == 0 ? f[3] : Math.min(base, f[3]);
+            }
+            if (base == 0)
+                base = DEFAULT_DELAY_CS;
+
+            int w = screenW;
+            int h = screenH;
+            int[] canvas = new int[w * h];
+            List<Future<Color[][]>> converted = new ArrayList<>();
+            List<Integer> repeats = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int[] f = info[i];
+                BufferedImage img = images[i];
+                images[i] = null;
+                int fw = Math.min(img.getWidth(), w - f[0]);
+                int fh = Math.min(img.getHeight(), h - f[1]);
+                int[] restore = f[2] == DISPOSE_PREVIOUS ? canvas.clone() : null;
+                int[] src = PixelOps.argbPixels(img);
+                for (int r = 0; r < fh; r++) {
+                    int srcRow = r * img.getWidth();
+                    int dstRow = (f[1] + r) * w + f[0];
+                    for (int c = 0; c < fw; c++) {
+                        int v = src[srcRow + c];
+                        if ((v >>> 24) != 0) {
+                            canvas[dstRow + c] = v;
+                        }
+                    }
+                }
+                int[] shown = canvas.clone();
+                converted.add(pool.submit(() -> {
+                    Color[][] layer = new Color[h][w];
+                    PixelOps.readArgb(shown, layer);
+                    return layer;
+                }));
+                repeats.add(f[3] <= 0 ? 1 : Math.max(1, Math.min(MAX_REPEAT, Math.round(f[3] / (float) base))));
+                if (f[2] == DISPOSE_BACKGROUND) {
+                    for (int r = 0; r < Math.max(0, fh); r++) {
+                        int dstRow = (f[1] + r) * w + f[0];
+                        Arrays.fill(canvas, dstRow, dstRow + Math.max(0, fw), 0);
+                    }
+                } else if (restore != null) {
+                    canvas = restore;
+                }
+            }
+            List<Color[][]> frames = new ArrayList<>();
+            for (int i = 0; i < converted.size(); i++) {
+                Color[][] layer = get(converted.get(i));
+                for (int k = 0; k < repeats.get(i); k++) {
+                    frames.add(layer); // frames never mutate their pixels, so repeats can share them
+                }
+            }
+            return new AnimationImport(w, h, frames, base);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void decodeRange(File file, int from, int to, BufferedImage[] images, int[][] info) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = gifReader(in);
+            try {
+                for (int i = from; i < to; i++) {
+                    images[i] = reader.read(i);
+                    IIOMetadata meta = reader.getImageMetadata(i);
+                    IIOMetadataNode desc = child(meta, "javax_imageio_gif_image_1.0", "ImageDescriptor");
+                    IIOMetadataNode gce = child(meta, "javax_imageio_gif_image_1.0", "GraphicControlExtension");
+                    int disposal = DISPOSE_NONE;
+                    int delay = 0;
+                    if (gce != null) {
+                        String method = gce.getAttribute("disposalMethod");
+                        if ("restoreToBackgroundColor".equals(method))
+                            disposal = DISPOSE_BACKGROUND;
+                        else if ("restoreToPrevious".equals(method))
+                            disposal = DISPOSE_PREVIOUS;
+                        delay = intAttr(gce, "delayTime");
+                    }
+                    info[i] = new int[] { desc != null ? intAttr(desc, "imageLeftPosition") : 0,
+                            desc != null ? intAttr(desc, "imageTopPosition") : 0, disposal, delay };
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader gifReader(ImageInputStream in) throws IOException {
+        if (in == null)
+            throw new IOException("Cannot open file");
+        var readers = ImageIO.getImageReaders(in);
+        while (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            if ("gif".equalsIgnoreCase(reader.getFormatName())) {
+                reader.setInput(in, false, false);
+                return reader;
+            }
+        }
+        throw new IOException("Not a GIF file");
+    }
+
+    private static IIOMetadataNode child(IIOMetadata meta, String format, String name) {
+        if (meta == null)
+            return null;
+        Node root = meta.getAsTree(format);
+        for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (name.equals(n.getNodeName()))
+                return (IIOMetadataNode) n;
+        }
+        return null;
+    }
+
+    private static int intAttr(IIOMetadataNode node, String name) {
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static boolean emptyCell(int[] argb, int stride, int x, int y, int w, int h) {
+        for (int r = 0; r < h; r++) {
+            int row = (y + r) * stride + x;
+            for (int c = 0; c < w; c++) {
+                if ((argb[row + c] >>> 24) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static ExecutorService newPool(int tasks) {
+        int threads = Math.max(1, Math.min(tasks, Runtime.getRuntime().availableProcessors()));
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "import-decode");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static void await(List<? extends Future<?>> jobs) throws IOException {
+        for (Future<?> job : jobs) {
+            get(job);
+        }
+    }
+
+    private static <T> T get(Future<T> job) throws IOException {
+        try {
+            return job.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io)
+                throw io;
+            throw new IOException(String.valueOf(cause.getMessage()), cause);
+        }
+    }
+}
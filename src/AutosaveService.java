@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Periodically writes the project to a recovery file without blocking the EDT.
+ * The snapshot is taken on the EDT: frames are immutable and replaced on edit,
+ * so copying the frame lists is enough to freeze the project while the writer
+ * thread encodes it. Nothing is written while frames and settings still match
+ * the last write or markSaved.
+ */
+class AutosaveService {
+    static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+    private final PixelArtModel model;
+    private final Path recoveryFile;
+    private final Consumer<String> statusSink;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autosave");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private Timer timer;
+    private List<PixelArtModel.FrameData>[] lastSaved;
+    private PixelArtModel.ProjectData lastMeta;
+
+    AutosaveService(PixelArtModel model, Path recoveryFile, Consumer<String> statusSink) {
+        this.model = model;
+        this.recoveryFile = recoveryFile;
+        this.statusSink = statusSink;
+    }
+
+    static Path defaultRecoveryFile() {
+        return Paths.get(System.getProperty("user.home"), ".pixel_art", "recovery.pxp");
+    }
+
+    static int configuredIntervalSeconds() {
+        try {
+            return Integer.parseInt(System.getProperty("pixelart.autosave", String.valueOf(DEFAULT_INTERVAL_SECONDS)));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_INTERVAL_SECONDS;
+        }
+    }
+
+    Path getRecoveryFile() {
+        return recoveryFile;
+    }
+
+    boolean hasRecovery() {
+        return Files.isRegularFile(recoveryFile);
+    }
+
+    /** Starts or reschedules autosave; a non-positive interval turns it off. */
+    void setInterval(int seconds) {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+        if (seconds <= 0) {
+            return;
+        }
+        timer = new Timer(seconds * 1000, e -> saveNow());
+        timer.setInitialDelay(seconds * 1000);
+        timer.start();
+    }
+
+    boolean isEnabled() {
+        return timer != null && timer.isRunning();
+    }
+
+    /** Takes a snapshot on the calling (EDT) thread and writes it in the background. */
+    void saveNow() {
+        if (!writing.compareAndSet(false, true)) {
+            return; // previous write still running; the next tick picks up the changes
+        }
+        model.saveCurrentFrames();
+        List<PixelArtModel.FrameData>[] frames = model.snapshotFrames();
+        PixelArtModel.ProjectData meta = model.toProjectMetadata();
+        if (sameFrames(frames, lastSaved) && meta.sameSettings(lastMeta)) {
+            writing.set(false);
+            return;
+        }
+        // a project loaded or saved before the write runs must not close the files these frames read
+        Set<ProjectArchive> held = ProjectArchive.retainAll(frames);
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(recoveryFile.getParent());
+                ProjectArchive.write(recoveryFile, meta, frames);
+                SwingUtilities.invokeLater(() -> {
+                    lastSaved = frames;
+                    lastMeta = meta;
+                });
+            } catch (IOException | RuntimeException ex) {
+                report("Autosave failed: " + ex.getMessage());
+            } finally {
+                ProjectArchive.releaseAll(held);
+                writing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Takes the model as it is now as already saved, e.g. at start-up or after a
+     * project was loaded or saved, so an unchanged project is never written.
+     */
+    void markSaved() {
+        model.saveCurrentFrames();
+        lastSaved = model.snapshotFrames();
+        lastMeta = model.toProjectMetadata();
+    }
+
+    /** Removes the recovery file after a clean exit or once the user declines recovery. */
+    void discard() {
+        if (timer != null) {
+            timer.stop();
+        }
+        try {
+            // queued behind a write still in progress, which would otherwise recreate the file
+            writer.submit(() -> {
+                Files.deleteIfExists(recoveryFile);
+                return null;
+            }).get();
+        } catch (ExecutionException ex) {
+            report("Could not remove recovery file: " + ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report(String message) {
+        if (statusSink != null) {
+            SwingUtilities.invokeLater(() -> statusSink.accept(message));
+        }
+    }
+
+    private static boolean sameFrames(List<PixelArtModel.FrameData>[] a, List<PixelArtModel.FrameData>[] b) {
+        if (a == null || b == null || a.length != b.length)
+            return false;
+        for (int l = 0; l < a.length; l++) {
+            if (a[l].size() != b[l].size())
+                return false;
+            for (int i = 0; i < a[l].size(); i++) {
+                if (a[l].get(i) != b[l].get(i))
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.swing.SwingUtilities;
+
+/**
+ * A long console command running off the EDT. The work runs on a shared
+ * background thread against a snapshot taken when the command was issued and
+ * must not touch the model; its result is applied on the EDT in one step, so
+ * the editor never shows half of it. Cancelling stops work that checks for it
+ * between steps and always discards the result.
+ *
+ * Started off the EDT, e.g. by a headless driver, the work and the apply step
+ * run on the calling thread before start returns.
+ */
+class BackgroundTask<T> {
+    interface Work<T> {
+        /** Runs the work; task is null when it runs without a BackgroundTask. */
+        T run(BackgroundTask<?> task) throws Exception;
+    }
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "background-task");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final Work<T> work;
+    private final Function<T, String> apply;
+    private volatile boolean cancelled;
+    private volatile int percent = -1;
+    private volatile boolean background;
+    private volatile boolean failed;
+    private Runnable progressListener = () -> { };
+    private Future<?> future;
+    private Consumer<String> doneListener;
+    // claimed by whichever comes first: the worker starting the work, or a cancel before that
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /** apply runs on the EDT with the result and returns the status to show. */
+    BackgroundTask(String name, Work<T> work, Function<T, String> apply) {
+        this.name = name;
+        this.work = work;
+        this.apply = apply;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /** Percent done, or -1 while the work has not reported any progress. */
+    int getPercent() {
+        return percent;
+    }
+
+    String describe() {
+        return name + (percent >= 0 ? " " + percent + "%" : "...") + " (Esc to cancel)";
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** True once the task finished by being cancelled or throwing, rather than through apply. */
+    boolean hasFailed() {
+        return failed;
+    }
+
+    void cancel() {
+        cancelled = true;
+        if (future == null) {
+            return;
+        }
+        // never interrupts: the work may be reading a project archive, whose channel an interrupt closes
+        future.cancel(false);
+        if (claimed.compareAndSet(false, true)) {
+            // the work never started, so nothing else will report that it ended
+            SwingUtilities.invokeLater(() -> doneListener.accept(name + " cancelled"));
+        }
+    }
+
+    /** Called by the work; notifies the progress listener on the EDT when the percentage changes. */
+    void progress(int done, int total) {
+        int pct = total <= 0 ? 0 : (int) Math.min(100, (long) done * 100 / total);
+        if (pct == percent)
+            return;
+        percent = pct;
+        if (!background) {
+            progressListener.run();
+        } else {
+            SwingUtilities.invokeLater(progressListener);
+        }
+    }
+
+    /** Called by the work between steps; throws once the task has been cancelled. */
+    void checkCancelled() {
+        if (cancelled || Thread.currentThread().isInterrupted())
+            throw new CancellationException();
+    }
+
+    /** Starts the work; onDone receives the final status on the EDT, after the result was applied. */
+    void start(Runnable onProgress, Consumer<String> onDone) {
+        progressListener = onProgress;
+        if (!SwingUtilities.isEventDispatchThread()) {
+            onDone.accept(runNow());
+            return;
+        }
+        background = true;
+        doneListener = onDone;
+        future = WORKER.submit(() -> {
+            if (!claimed.compareAndSet(false, true))
+                return;
+            Object outcome = execute();
+            SwingUtilities.invokeLater(() -> onDone.accept(finish(outcome)));
+        });
+    }
+
+    /** Runs the work and applies its result on the calling thread, returning the final status. */
+    String runNow() {
+        return finish(execute());
+    }
+
+    // the result, or the Throwable that ended the work
+    private Object execute() {
+        try {
+            return work.run(this);
+        } catch (Exception | OutOfMemoryError ex) {
+            return ex;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String finish(Object outcome) {
+        failed = cancelled || outcome instanceof Throwable;
+        if (cancelled || outcome instanceof CancellationException)
+            return name + " cancelled";
+        if (outcome instanceof Throwable ex)
+            return name + " failed: " + (ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        return apply.apply((T) outcome);
+    }
+}
@@ -0,0 +1,4 @@
+/** How a layer's colours combine with the layers below it; see PixelOps.blend. */
+public enum BlendMode {
+    NORMAL, MULTIPLY, SCREEN, ADD, OVERLAY
+}
@@ -0,0 +1,47 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A text file of console commands, one per line, as run by the console's run
+ * command and by PixelArtBatch -s. Blank lines and lines starting with # are
+ * skipped.
+ *
+ * <pre>
+ * # shrink-wrap sprites for the game build
+ * resample 2
+ * dither ordered
+ * save-gif out/{name}.gif
+ * </pre>
+ */
+class CommandScript {
+    /** A command and the 1-based line it came from, for error messages. */
+    record Line(int number, String text) {
+        String[] parts() {
+            return text.split("\\s+");
+        }
+    }
+
+    final File file;
+    final List<Line> lines;
+
+    private CommandScript(File file, List<Line> lines) {
+        this.file = file;
+        this.lines = lines;
+    }
+
+    static CommandScript read(File file) throws IOException {
+        List<Line> lines = new ArrayList<>();
+        int number = 0;
+        for (String raw : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            number++;
+            String text = raw.trim();
+            if (!text.isEmpty() && !text.startsWith("#"))
+                lines.add(new Line(number, text));
+        }
+        return new CommandScript(file, lines);
+    }
+}
@@ -23,6 +23,7 @@ class ConsolePanel extends JComponent {
     private int historyIndex = -1;
     private String currentInput = "";
     private String status = "Commands: save <file.png> | new <size> | help";
+    private int progress = -1;
     private boolean caretVisible = true;
     private final Timer caretTimer = new Timer(500, e -> {
         caretVisible = !caretVisible;
@@ -111,6 +112,22 @@ class ConsolePanel extends JComponent {
         repaint();
     }
 
+    String getStatus() {
+        return status;
+    }
+
+    /** Shows a bar along the bottom edge for a background command; -1 hides it. */
+    void setProgress(int percent) {
+        progress = percent;
+        repaint();
+    }
+
+    /** Runs a command as if it had been typed and submitted. */
+    void submit(String command) {
+        currentInput = command;
+        submit();
+    }
+
     private void submit() {
         String text = currentInput.trim();
         if (!text.isEmpty()) {
@@ -152,6 +169,13 @@ class ConsolePanel extends JComponent {
         Rectangle inputBounds = new Rectangle(padding, padding + 22, getWidth() - padding * 2, lineHeight + 10);
         PixelFont.drawLeft(g2, prompt, inputBounds, 2, PixelConstants.TEXT);
 
+        if (progress >= 0) {
+            g2.setColor(PixelConstants.BUTTON_BORDER);
+            g2.fillRect(padding, getHeight() - 6, getWidth() - padding * 2, 3);
+            g2.setColor(PixelConstants.TEXT);
+            g2.fillRect(padding, getHeight() - 6, (getWidth() - padding * 2) * Math.min(100, progress) / 100, 3);
+        }
+
         if (hasFocus) {
             g2.setColor(new Color(255, 170, 60));
             g2.drawRect(1, 1, getWidth() - 3, getHeight() - 3);
@@ -8,6 +8,7 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -40,6 +41,10 @@ class ControlBar extends JComponent {
         Color currentBrushColor();
         String getLayerName(int idx);
         boolean isLayerVisible(int idx);
+        int getLayerCount();
+        void addLayer();
+        void removeLayer();
+        void mergeLayerDown();
     }
 
     private static final int SLIDER_LABEL_OFFSET = 4; // adjust label Y relative to slider row
@@ -60,9 +65,13 @@ class ControlBar extends JComponent {
     private final ActionButton toolMove;
     private final ActionButton toolRotate;
     private final ActionButton toolErase;
-    private final ActionButton[] layerButtons;
-    private final ActionButton[] visButtons;
-    private final ActionButton[] moveUpButtons;
+    // one row per layer, grown or shrunk to the layer count on paint
+    private final List<ActionButton> layerButtons = new ArrayList<>();
+    private final List<ActionButton> visButtons = new ArrayList<>();
+    private final List<ActionButton> moveUpButtons = new ArrayList<>();
+    private final ActionButton addLayerButton;
+    private final ActionButton removeLayerButton;
+    private final ActionButton mergeLayerButton;
     private final List<ActionButton> buttons;
     private SliderControl activeSlider;
     private ActionButton activeButton;
@@ -131,30 +140,10 @@ class ControlBar extends JComponent {
             app.setToolMode(ToolMode.ERASER);
             repaint();
         }, true);
-        layerButtons = new ActionButton[] {
-                new ActionButton("L1", () -> {
-                    app.setActiveLayer(0);
-                    repaint();
-                }, true),
-                new ActionButton("L2", () -> {
-                    app.setActiveLayer(1);
-                    repaint();
-                }, true),
-                new ActionButton("L3", () -> {
-                    app.setActiveLayer(2);
-                    repaint();
-                }, true)
-        };
-        visButtons = new ActionButton[] {
-                new ActionButton("V", () -> { app.toggleLayerVisibility(0); repaint(); }, true),
-                new ActionButton("V", () -> { app.toggleLayerVisibility(1); repaint(); }, true),
-                new ActionButton("V", () -> { app.toggleLayerVisibility(2); repaint(); }, true)
-        };
-        moveUpButtons = new ActionButton[] {
-                new ActionButton("^", () -> { app.swapLayerUp(0); repaint(); }, true),
-                new ActionButton("^", () -> { app.swapLayerUp(1); repaint(); }, true),
-                new ActionButton("^", () -> { app.swapLayerUp(2); repaint(); }, true)
-        };
+        addLayerButton = new ActionButton("+", () -> { app.addLayer(); repaint(); }, true);
+        removeLayerButton = new ActionButton("-", () -> { app.removeLayer(); repaint(); }, true);
+        mergeLayerButton = new ActionButton("Merge", () -> { app.mergeLayerDown(); repaint(); }, true);
+        syncLayerButtons();
         buttons = List.of(
                 new ActionButton("Fill", () -> app.getCanvas().fill(app.currentBrushColor()), true),
                 new ActionButton("Clear", () -> app.getCanvas().clear(), true),
@@ -380,29 +369,62 @@ class ControlBar extends JComponent {
 
         y += rowHeight * 2 + gap + 8;
 
-        // Fill/Clear directly under transform tools
-        int rowH = btnHeight;
-        int rowGap = 8;
-        for (int i = 0; i < layerButtons.length; i++) {
-            ActionButton b = layerButtons[i];
-            ActionButton v = visButtons[i];
-            ActionButton up = moveUpButtons[i];
+        // Layer add / remove / merge, then one row per layer
+        int visWidth = 32;
+        int upWidth = 28;
+        int gapSmall = 6;
+        int mergeWidth = width - visWidth - upWidth - gapSmall * 2;
+        addLayerButton.bounds = new Rectangle(padding, y, visWidth, 26);
+        removeLayerButton.bounds = new Rectangle(padding + visWidth + gapSmall, y, upWidth, 26);
+        mergeLayerButton.bounds = new Rectangle(padding + visWidth + upWidth + gapSmall * 2, y, mergeWidth, 26);
+        paintButton(g2, addLayerButton);
+        paintButton(g2, removeLayerButton);
+        paintButton(g2, mergeLayerButton);
+        y += 26 + 8;
+
+        syncLayerButtons();
+        int count = layerButtons.size();
+        // rows shrink to fit many layers, down to a single-scale label
+        int rowGap = count <= 4 ? 8 : 3;
+        int rowH = Math.max(12, Math.min(btnHeight, (getHeight() - y - padding - rowGap * (count - 1)) / count));
+        int fontScale = rowH >= 20 ? 2 : 1;
+        for (int i = 0; i < count; i++) {
+            ActionButton b = layerButtons.get(i);
+            ActionButton v = visButtons.get(i);
+            ActionButton up = moveUpButtons.get(i);
             b.label = app.getLayerName(i);
             int rowY = y + i * (rowH + rowGap);
-            int visWidth = 32;
-            int upWidth = 28;
-            int gapSmall = 6;
             int labelWidth = width - visWidth - upWidth - gapSmall * 2;
             b.bounds = new Rectangle(padding, rowY, labelWidth, rowH);
             v.bounds = new Rectangle(padding + labelWidth + gapSmall, rowY, visWidth, rowH);
             up.bounds = new Rectangle(padding + labelWidth + gapSmall + visWidth + gapSmall, rowY, upWidth, rowH);
-            paintButton(g2, b);
-            paintButton(g2, v);
-            paintButton(g2, up);
+            paintButton(g2, b, fontScale);
+            paintButton(g2, v, fontScale);
+            paintButton(g2, up, fontScale);
+        }
+    }
+
+    private void syncLayerButtons() {
+        int count = Math.max(1, app.getLayerCount());
+        while (layerButtons.size() < count) {
+            int idx = layerButtons.size();
+            layerButtons.add(new ActionButton("L" + (idx + 1), () -> { app.setActiveLayer(idx); repaint(); }, true));
+            visButtons.add(new ActionButton("V", () -> { app.toggleLayerVisibility(idx); repaint(); }, true));
+            moveUpButtons.add(new ActionButton("^", () -> { app.swapLayerUp(idx); repaint(); }, true));
+        }
+        while (layerButtons.size() > count) {
+            int last = layerButtons.size() - 1;
+            layerButtons.remove(last);
+            visButtons.remove(last);
+            moveUpButtons.remove(last);
         }
     }
 
     private void paintButton(Graphics2D g2, ActionButton button) {
+        paintButton(g2, button, 2);
+    }
+
+    private void paintButton(Graphics2D g2, ActionButton button, int fontScale) {
         Color themed = themedButtonColor(button, button.label, button.accent);
         Color fill = themed;
         if (button.pressed) {
@@ -412,7 +434,7 @@ class ControlBar extends JComponent {
         }
         g2.setColor(fill);
         g2.fillRect(button.bounds.x, button.bounds.y, button.bounds.width, button.bounds.height);
-        PixelFont.draw(g2, button.label.toUpperCase(), button.bounds, 2, PixelConstants.TEXT);
+        PixelFont.draw(g2, button.label.toUpperCase(), button.bounds, fontScale, PixelConstants.TEXT);
     }
 
     private boolean tryPressButton(MouseEvent e) {
@@ -471,6 +493,11 @@ class ControlBar extends JComponent {
                 return button;
             }
         }
+        for (ActionButton lb : List.of(addLayerButton, removeLayerButton, mergeLayerButton)) {
+            if (lb.bounds != null && lb.bounds.contains(x, y)) {
+                return lb;
+            }
+        }
         for (ActionButton lb : layerButtons) {
             if (lb.bounds != null && lb.bounds.contains(x, y)) {
                 return lb;
@@ -513,6 +540,9 @@ class ControlBar extends JComponent {
             }
             return PixelConstants.ACCENT;
         }
+        if (button == addLayerButton || button == removeLayerButton || button == mergeLayerButton) {
+            return PixelConstants.ACCENT.darker();
+        }
         if (button == toolMove || button == toolRotate) {
             return new Color(90, 180, 90); // gentler green for transforms
         }
@@ -562,32 +592,20 @@ class ControlBar extends JComponent {
     }
 
     private boolean isActiveLayer(ActionButton button) {
-        int active = app.getActiveLayer();
-        if (button == layerButtons[0])
-            return active == 0;
-        if (button == layerButtons[1])
-            return active == 1;
-        if (button == layerButtons[2])
-            return active == 2;
-        return false;
+        int idx = layerButtons.indexOf(button);
+        return idx >= 0 && idx == app.getActiveLayer();
     }
 
     private boolean isVisButton(ActionButton button) {
-        return button == visButtons[0] || button == visButtons[1] || button == visButtons[2];
+        return visButtons.contains(button);
     }
 
     private int visIndex(ActionButton button) {
-        if (button == visButtons[0])
-            return 0;
-        if (button == visButtons[1])
-            return 1;
-        if (button == visButtons[2])
-            return 2;
-        return -1;
+        return visButtons.indexOf(button);
     }
 
     private boolean isLayerButton(ActionButton button) {
-        return button == layerButtons[0] || button == layerButtons[1] || button == layerButtons[2];
+        return layerButtons.contains(button);
     }
 
 }
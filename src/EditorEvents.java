@@ -0,0 +1,217 @@
+import java.awt.Color;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for editor operations, so a recording shows which
+ * stroke, filter, repaint, undo snapshot, frame switch or export caused a
+ * pause. Enable with e.g. -XX:StartFlightRecording:filename=edit.jfr; when
+ * no recording is running, begin and commit cost almost nothing, and the
+ * events fired on every drag step are not built at all. Timed events started
+ * here end with finish, which also records them in Metrics.
+ */
+final class EditorEvents {
+    private static final String CATEGORY = "Pixel Art";
+    private static final Metrics.Timing STROKE_TIME = Metrics.timing("canvas.stroke");
+
+    private EditorEvents() {
+    }
+
+    @Name("pixelart.Stroke")
+    @Label("Stroke")
+    @Category({ CATEGORY, "Canvas" })
+    @StackTrace(false)
+    static final class Stroke extends Event {
+        transient long startNanos;
+        @Label("Tool")
+        String tool;
+        @Label("Layer")
+        int layer;
+        @Label("Samples")
+        int samples;
+    }
+
+    @Name("pixelart.Paint")
+    @Label("Canvas Paint")
+    @Category({ CATEGORY, "Canvas" })
+    @StackTrace(false)
+    static final class Paint extends Event {
+        @Label("Columns")
+        int columns;
+        @Label("Rows")
+        int rows;
+        @Label("Cell Size")
+        int cellSize;
+    }
+
+    @Name("pixelart.PixelOp")
+    @Label("Pixel Operation")
+    @Category({ CATEGORY, "Pixel Ops" })
+    static final class PixelOp extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Columns")
+        int columns;
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("pixelart.UndoSnapshot")
+    @Label("Undo Snapshot")
+    @Category({ CATEGORY, "History" })
+    static final class UndoSnapshot extends Event {
+        @Label("Layers")
+        int layers;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("pixelart.FrameSwitch")
+    @Label("Frame Switch")
+    @Category({ CATEGORY, "Animation" })
+    @StackTrace(false)
+    static final class FrameSwitch extends Event {
+        @Label("Cause")
+        String cause;
+        // -1 for playback, which advances every animated layer
+        @Label("Layer")
+        int layer;
+        @Label("From Frame")
+        int fromFrame;
+        @Label("To Frame")
+        int toFrame;
+    }
+
+    @Name("pixelart.Export")
+    @Label("Export")
+    @Category({ CATEGORY, "Files" })
+    static final class Export extends Event {
+        transient long startNanos;
+        transient Output output;
+        @Label("Kind")
+        String kind;
+        @Label("Path")
+        String path;
+        @Label("Columns")
+        int columns;
+        @Label("Rows")
+        int rows;
+        @Label("Frames")
+        int frames;
+        @Label("Output Size")
+        @DataAmount
+        long bytes;
+    }
+
+    /** Pixel operations; each keeps its own timing so finishing one builds no name and looks nothing up. */
+    enum Op {
+        FLIP_HORIZONTAL("flipHorizontal"), FLIP_VERTICAL("flipVertical"), FLOOD_FILL("floodFill"),
+        BLUR_GAUSSIAN("blurGaussian"), BLUR_MOTION("blurMotion"), DITHER_FLOYD_STEINBERG("ditherFloydSteinberg"),
+        DITHER_ORDERED("ditherOrdered"), BLUR_BRUSH("blurBrush"), APPLY_MOVE("applyMove"), APPLY_ROTATE("applyRotate"),
+        MAP("map");
+
+        final String label;
+        private final Metrics.Timing time;
+
+        Op(String label) {
+            this.label = label;
+            this.time = Metrics.timing("op." + label);
+        }
+    }
+
+    /** What moved the shown frame. */
+    enum Switch {
+        STEP, SELECT, PLAYBACK;
+
+        final String label = name().toLowerCase();
+        private final Metrics.Timing time = Metrics.timing("frame." + label);
+    }
+
+    enum Output {
+        PNG, GIF, SEQUENCE, SHEET, PROJECT;
+
+        final String label = name().toLowerCase();
+        private final Metrics.Timing time = Metrics.timing("export." + label);
+    }
+
+    // asked whether a recording wants the event before one is built; they hold no state of their own
+    private static final PixelOp PIXEL_OP_PROBE = new PixelOp();
+    private static final FrameSwitch FRAME_SWITCH_PROBE = new FrameSwitch();
+
+    static Stroke stroke(ToolMode tool, int layer) {
+        Stroke event = new Stroke();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        event.tool = String.valueOf(tool);
+        event.layer = layer;
+        return event;
+    }
+
+    /** Starts a PixelOp event, or returns null when no recording has it enabled. */
+    static PixelOp pixelOp(Op op, Color[][] layer) {
+        if (!PIXEL_OP_PROBE.isEnabled())
+            return null;
+        PixelOp event = new PixelOp();
+        event.begin();
+        event.operation = op.label;
+        event.rows = layer.length;
+        event.columns = layer.length > 0 ? layer[0].length : 0;
+        return event;
+    }
+
+    /** Starts a FrameSwitch event, or returns null when no recording has it enabled. */
+    static FrameSwitch frameSwitch(Switch cause, int layer, int fromFrame) {
+        if (!FRAME_SWITCH_PROBE.isEnabled())
+            return null;
+        FrameSwitch event = new FrameSwitch();
+        event.begin();
+        event.cause = cause.label;
+        event.layer = layer;
+        event.fromFrame = fromFrame;
+        return event;
+    }
+
+    static Export export(Output kind, String path, int columns, int rows) {
+        Export event = new Export();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        event.output = kind;
+        event.kind = kind.label;
+        event.path = path;
+        event.columns = columns;
+        event.rows = rows;
+        return event;
+    }
+
+    // finish also feeds the stats metrics, which are kept whether or not JFR is recording;
+    // events started by pixelOp and frameSwitch may be null, so their start time is passed in
+
+    static void finish(Stroke event) {
+        STROKE_TIME.since(event.startNanos);
+        event.commit();
+    }
+
+    static void finish(Op op, PixelOp event, long startNanos) {
+        op.time.since(startNanos);
+        if (event != null)
+            event.commit();
+    }
+
+    static void finish(Switch cause, FrameSwitch event, long startNanos, int toFrame) {
+        cause.time.since(startNanos);
+        if (event != null) {
+            event.toFrame = toFrame;
+            event.commit();
+        }
+    }
+
+    static void finish(Export event) {
+        event.output.time.since(event.startNanos);
+        event.commit();
+    }
+}
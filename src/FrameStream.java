@@ -0,0 +1,86 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Renders frames 0..count-1 on a producer thread and hands them to the consumer
+ * through a bounded queue, so only a few composited frames exist at any time
+ * regardless of how long the export is. Closing stops the producer after the
+ * frame it is rendering rather than interrupting it, since an interrupt would
+ * close the channel of a project archive it is decoding from.
+ */
+class FrameStream implements AutoCloseable {
+    static final int DEFAULT_DEPTH = 4;
+    private static final BufferedImage END = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private final BlockingQueue<BufferedImage> queue;
+    private final Thread producer;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private boolean finished;
+
+    FrameStream(int count, IntFunction<BufferedImage> render) {
+        this(count, render, DEFAULT_DEPTH);
+    }
+
+    FrameStream(int count, IntFunction<BufferedImage> render, int depth) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, depth));
+        this.producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count && !closed; i++) {
+                    offer(render.apply(i));
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            }
+            try {
+                offer(END);
+            } catch (InterruptedException ignored) {
+                // consumer is gone
+            }
+        }, "frame-compositor");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    // waits for room in the queue until the consumer closes the stream
+    private void offer(BufferedImage img) throws InterruptedException {
+        while (!closed && !queue.offer(img, 50, TimeUnit.MILLISECONDS)) {
+            // keep waiting
+        }
+    }
+
+    /** Returns the next frame in order, or null once all frames have been delivered. */
+    BufferedImage next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        BufferedImage img;
+        try {
+            img = queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", ex);
+        }
+        if (img == END) {
+            finished = true;
+            if (failure != null) {
+                throw new IOException("Compositing failed: " + failure.getMessage(), failure);
+            }
+            return null;
+        }
+        return img;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        closed = true;
+        queue.clear();
+    }
+}
@@ -0,0 +1,470 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal animated GIF89a writer tuned for pixel art.
+ * All frames share one global palette; each frame after the first only encodes
+ * the rectangle that changed since the previous one, with unchanged pixels left
+ * transparent so the decoder keeps what is already on screen. Frames are held
+ * back by one step so a frame can be switched to "restore to background" when
+ * the next one needs pixels cleared.
+ */
+class GifEncoder implements AutoCloseable {
+    private static final int DISPOSE_NONE = 1;
+    private static final int DISPOSE_BACKGROUND = 2;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Palette palette;
+    private final byte[] screen; // what the decoder shows before the pending frame is applied
+    private byte[] pending;
+    private int pendingDelay;
+    private boolean started;
+
+    GifEncoder(OutputStream out, int width, int height, Palette palette) {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.screen = new byte[width * height];
+    }
+
+    /** Queues one full-canvas frame of packed ARGB pixels. */
+    void addFrame(int[] argb, int delayCs) throws IOException {
+        byte[] indices = new byte[width * height];
+        palette.map(argb, indices);
+        if (!started) {
+            writeHeader();
+            started = true;
+        }
+        if (pending != null) {
+            flushPending(indices);
+        }
+        pending = indices;
+        pendingDelay = delayCs;
+    }
+
+    void finish() throws IOException {
+        if (!started) {
+            writeHeader();
+            started = true;
+        }
+        if (pending != null) {
+            flushPending(null);
+            pending = null;
+        }
+        out.write(0x3B);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void flushPending(byte[] next) throws IOException {
+        int t = Palette.TRANSPARENT;
+        byte[] shown = pending;
+        boolean clearAfter = false;
+        if (next != null) {
+            for (int i = 0; i < next.length; i++) {
+                if (next[i] == t && shown[i] != t) {
+                    clearAfter = true;
+                    break;
+                }
+            }
+        }
+        if (clearAfter) {
+            // paint the whole frame explicitly and let the decoder wipe it afterwards
+            writeFrame(shown, 0, 0, width, height, false, DISPOSE_BACKGROUND, pendingDelay);
+            Arrays.fill(screen, (byte) t);
+            return;
+        }
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (shown[row + x] != screen[row + x]) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    if (y > maxY) maxY = y;
+                }
+            }
+        }
+        if (maxX < 0) {
+            // identical to what is on screen: a single transparent pixel keeps the timing
+            minX = minY = maxX = maxY = 0;
+        }
+        writeFrame(shown, minX, minY, maxX - minX + 1, maxY - minY + 1, true, DISPOSE_NONE, pendingDelay);
+        System.arraycopy(shown, 0, screen, 0, screen.length);
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(new byte[] { 'G', 'I', 'F', '8', '9', 'a' });
+        writeShort(width);
+        writeShort(height);
+        int sizeBits = palette.sizeBits();
+        out.write(0x80 | 0x70 | (sizeBits - 1)); // global table, 8-bit colour resolution
+        out.write(Palette.TRANSPARENT);
+        out.write(0);
+        int[] table = palette.table();
+        for (int i = 0; i < (1 << sizeBits); i++) {
+            int rgb = i < table.length ? table[i] : 0;
+            out.write((rgb >> 16) & 0xFF);
+            out.write((rgb >> 8) & 0xFF);
+            out.write(rgb & 0xFF);
+        }
+        // NETSCAPE2.0 looping extension: loop forever
+        out.write(new byte[] { 0x21, (byte) 0xFF, 0x0B, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0',
+                0x03, 0x01, 0x00, 0x00, 0x00 });
+        Arrays.fill(screen, (byte) Palette.TRANSPARENT);
+    }
+
+    private void writeFrame(byte[] frame, int x, int y, int w, int h, boolean diff, int disposal, int delayCs)
+            throws IOException {
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write((disposal << 2) | 1);
+        writeShort(delayCs);
+        out.write(Palette.TRANSPARENT);
+        out.write(0);
+
+        out.write(0x2C);
+        writeShort(x);
+        writeShort(y);
+        writeShort(w);
+        writeShort(h);
+        out.write(0);
+
+        byte[] rect = new byte[w * h];
+        for (int r = 0; r < h; r++) {
+            int src = (y + r) * width + x;
+            if (diff) {
+                for (int c = 0; c < w; c++) {
+                    byte v = frame[src + c];
+                    rect[r * w + c] = v == screen[src + c] ? (byte) Palette.TRANSPARENT : v;
+                }
+            } else {
+                System.arraycopy(frame, src, rect, r * w, w);
+            }
+        }
+        new LzwWriter(out, Math.max(2, palette.sizeBits())).encode(rect);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >> 8) & 0xFF);
+    }
+
+    /**
+     * Global colour table. Index 0 is reserved for transparency; up to 255 opaque
+     * colours are used exactly, larger sets are reduced with a weighted median cut.
+     */
+    static final class Palette {
+        static final int TRANSPARENT = 0;
+        private static final int MAX_COLORS = 255;
+
+        private final int[] table;
+        private final Map<Integer, Integer> lookup = new HashMap<>();
+
+        private Palette(int[] table) {
+            this.table = table;
+            for (int i = 1; i < table.length; i++) {
+                lookup.putIfAbsent(table[i] & 0xFFFFFF, i);
+            }
+        }
+
+        /**
+         * Adds the colours of a composited frame to a histogram for fromHistogram.
+         * Pixels under half alpha are left out; they encode as transparent.
+         */
+        static void count(int[] argb, Map<Integer, int[]> histogram) {
+            int last = 0;
+            int[] count = null;
+            for (int v : argb) {
+                if ((v >>> 24) < 128)
+                    continue;
+                if (v != last || count == null) {
+                    count = histogram.computeIfAbsent(v & 0xFFFFFF, k -> new int[1]);
+                    last = v;
+                }
+                count[0]++;
+            }
+        }
+
+        static Palette fromHistogram(Map<Integer, int[]> histogram) {
+            int[] colors = new int[histogram.size()];
+            int[] weights = new int[histogram.size()];
+            int n = 0;
+            for (Map.Entry<Integer, int[]> e : histogram.entrySet()) {
+                colors[n] = e.getKey();
+                weights[n] = e.getValue()[0];
+                n++;
+            }
+            int[] opaque = colors.length <= MAX_COLORS ? colors : medianCut(colors, weights, MAX_COLORS);
+            int[] table = new int[opaque.length + 1];
+            System.arraycopy(opaque, 0, table, 1, opaque.length);
+            return new Palette(table);
+        }
+
+        int[] table() {
+            return table;
+        }
+
+        int sizeBits() {
+            int bits = 1;
+            while ((1 << bits) < table.length) bits++;
+            return bits;
+        }
+
+        void map(int[] argb, byte[] indices) {
+            int lastArgb = 0;
+            byte lastIndex = TRANSPARENT;
+            for (int i = 0; i < argb.length; i++) {
+                int v = argb[i];
+                if (v == lastArgb) {
+                    indices[i] = lastIndex;
+                    continue;
+                }
+                lastArgb = v;
+                lastIndex = (byte) indexOf(v);
+                indices[i] = lastIndex;
+            }
+        }
+
+        int indexOf(int argb) {
+            if ((argb >>> 24) < 128) return TRANSPARENT;
+            int rgb = argb & 0xFFFFFF;
+            Integer idx = lookup.get(rgb);
+            if (idx != null) return idx;
+            int best = 1;
+            long bestDist = Long.MAX_VALUE;
+            for (int i = 1; i < table.length; i++) {
+                long d = distance(rgb, table[i]);
+                if (d < bestDist) {
+                    bestDist = d;
+                    best = i;
+                }
+            }
+            lookup.put(rgb, best);
+            return best;
+        }
+
+        private static long distance(int a, int b) {
+            int dr = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+            int dg = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+            int db = (a & 0xFF) - (b & 0xFF);
+            return (long) dr * dr + (long) dg * dg + (long) db * db;
+        }
+
+        private static int[] medianCut(int[] colors, int[] weights, int target) {
+            List<int[]> boxes = new ArrayList<>(); // each box: indices into colors
+            int[] all = new int[colors.length];
+            for (int i = 0; i < all.length; i++) all[i] = i;
+            boxes.add(all);
+            while (boxes.size() < target) {
+                int pick = -1;
+                long pickScore = 0;
+                int pickChannel = 0;
+                for (int b = 0; b < boxes.size(); b++) {
+                    int[] box = boxes.get(b);
+                    if (box.length < 2) continue;
+                    int channel = widestChannel(colors, box);
+                    long score = (long) channelRange(colors, box, channel) * boxWeight(weights, box);
+                    if (score > pickScore) {
+                        pickScore = score;
+                        pick = b;
+                        pickChannel = channel;
+                    }
+                }
+                if (pick < 0) break;
+                int[] box = boxes.remove(pick);
+                int shift = pickChannel;
+                Integer[] order = new Integer[box.length];
+                for (int i = 0; i < box.length; i++) order[i] = box[i];
+                Arrays.sort(order, (p, q) -> Integer.compare((colors[p] >> shift) & 0xFF, (colors[q] >> shift) & 0xFF));
+                long half = boxWeight(weights, box) / 2;
+                long acc = 0;
+                int split = 1;
+                for (int i = 0; i < order.length - 1; i++) {
+                    acc += weights[order[i]];
+                    split = i + 1;
+                    if (acc >= half) break;
+                }
+                int[] lo = new int[split];
+                int[] hi = new int[order.length - split];
+                for (int i = 0; i < order.length; i++) {
+                    if (i < split) lo[i] = order[i];
+                    else hi[i - split] = order[i];
+                }
+                boxes.add(lo);
+                boxes.add(hi);
+            }
+            int[] result = new int[boxes.size()];
+            for (int b = 0; b < boxes.size(); b++) {
+                long r = 0, g = 0, bl = 0, w = 0;
+                for (int i : boxes.get(b)) {
+                    int c = colors[i];
+                    long wt = Math.max(1, weights[i]);
+                    r += ((c >> 16) & 0xFF) * wt;
+                    g += ((c >> 8) & 0xFF) * wt;
+                    bl += (c & 0xFF) * wt;
+                    w += wt;
+                }
+                result[b] = (int) ((r / w) << 16 | (g / w) << 8 | (bl / w));
+            }
+            return result;
+        }
+
+        private static int widestChannel(int[] colors, int[] box) {
+            int best = 16;
+            int bestRange = -1;
+            for (int shift : new int[] { 16, 8, 0 }) {
+                int range = channelRange(colors, box, shift);
+                if (range > bestRange) {
+                    bestRange = range;
+                    best = shift;
+                }
+            }
+            return best;
+        }
+
+        private static int channelRange(int[] colors, int[] box, int shift) {
+            int min = 255, max = 0;
+            for (int i : box) {
+                int v = (colors[i] >> shift) & 0xFF;
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            return max - min;
+        }
+
+        private static long boxWeight(int[] weights, int[] box) {
+            long w = 0;
+            for (int i : box) w += Math.max(1, weights[i]);
+            return w;
+        }
+    }
+
+    /** Variable-code-width GIF LZW with a 5003-slot open-addressed string table. */
+    private static final class LzwWriter {
+        private static final int MAX_BITS = 12;
+        private static final int MAX_CODE = 1 << MAX_BITS;
+        private static final int HSIZE = 5003;
+        private static final int HSHIFT = 4;
+
+        private final OutputStream out;
+        private final int minCodeSize;
+        private final int clearCode;
+        private final int endCode;
+        private final int[] htab = new int[HSIZE];
+        private final int[] codetab = new int[HSIZE];
+        private final byte[] block = new byte[256];
+        private int blockLen;
+        private int bitBuf;
+        private int bitCount;
+        private int codeBits;
+        private int maxCode;
+        private int freeEnt;
+        private boolean clearFlag;
+
+        LzwWriter(OutputStream out, int minCodeSize) {
+            this.out = out;
+            this.minCodeSize = minCodeSize;
+            this.clearCode = 1 << minCodeSize;
+            this.endCode = clearCode + 1;
+        }
+
+        void encode(byte[] pixels) throws IOException {
+            out.write(minCodeSize);
+            codeBits = minCodeSize + 1;
+            maxCode = (1 << codeBits) - 1;
+            freeEnt = clearCode + 2;
+            Arrays.fill(htab, -1);
+            output(clearCode);
+            int ent = pixels[0] & 0xFF;
+            outer:
+            for (int p = 1; p < pixels.length; p++) {
+                int c = pixels[p] & 0xFF;
+                int fcode = (c << MAX_BITS) + ent;
+                int i = (c << HSHIFT) ^ ent;
+                if (htab[i] == fcode) {
+                    ent = codetab[i];
+                    continue;
+                }
+                if (htab[i] >= 0) {
+                    int disp = i == 0 ? 1 : HSIZE - i;
+                    do {
+                        i -= disp;
+                        if (i < 0) i += HSIZE;
+                        if (htab[i] == fcode) {
+                            ent = codetab[i];
+                            continue outer;
+                        }
+                    } while (htab[i] >= 0);
+                }
+                output(ent);
+                ent = c;
+                if (freeEnt < MAX_CODE) {
+                    codetab[i] = freeEnt++;
+                    htab[i] = fcode;
+                } else {
+                    Arrays.fill(htab, -1);
+                    freeEnt = clearCode + 2;
+                    clearFlag = true;
+                    output(clearCode);
+                }
+            }
+            output(ent);
+            output(endCode);
+            if (bitCount > 0) {
+                writeByte(bitBuf & 0xFF);
+            }
+            flushBlock();
+            out.write(0);
+        }
+
+        private void output(int code) throws IOException {
+            bitBuf |= code << bitCount;
+            bitCount += codeBits;
+            while (bitCount >= 8) {
+                writeByte(bitBuf & 0xFF);
+                bitBuf >>>= 8;
+                bitCount -= 8;
+            }
+            if (freeEnt > maxCode || clearFlag) {
+                if (clearFlag) {
+                    codeBits = minCodeSize + 1;
+                    maxCode = (1 << codeBits) - 1;
+                    clearFlag = false;
+                } else {
+                    codeBits++;
+                    maxCode = codeBits == MAX_BITS ? MAX_CODE : (1 << codeBits) - 1;
+                }
+            }
+        }
+
+        private void writeByte(int b) throws IOException {
+            block[blockLen++] = (byte) b;
+            if (blockLen == 255) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockLen > 0) {
+                out.write(blockLen);
+                out.write(block, 0, blockLen);
+                blockLen = 0;
+            }
+        }
+    }
+}
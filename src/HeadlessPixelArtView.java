@@ -0,0 +1,375 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * PixelArtView without a window, for driving the controller on a server or in
+ * automated throughput and latency runs. Repaint requests are counted, status
+ * messages and dialogs are recorded, and the callbacks the controller registers
+ * can be invoked directly to simulate keyboard shortcuts.
+ */
+public class HeadlessPixelArtView implements PixelArtView {
+    private final AtomicInteger canvasRepaints = new AtomicInteger();
+    private final AtomicInteger controlRepaints = new AtomicInteger();
+    private final List<String> statuses = new ArrayList<>();
+    private final List<String> dialogs = new ArrayList<>();
+    private volatile boolean confirmAnswer;
+    private int cellSize = 16;
+    private Color viewportBackground;
+    private Color brushTarget;
+    private boolean animationVisible;
+    private volatile int consoleProgress = -1;
+
+    private PixelCanvas canvas;
+    private ConsolePanel console;
+    private Runnable undoCallback;
+    private Runnable redoCallback;
+    private Runnable flipHorizontalCallback;
+    private Runnable flipVerticalCallback;
+    private Runnable toggleOnionCallback;
+    private BooleanSupplier cancelCallback;
+    private Runnable closeCallback;
+    private IntConsumer frameStepCallback;
+    private IntConsumer brushSizeCallback;
+    private Consumer<ToolMode> toolSelectCallback;
+    private Consumer<Color> canvasPickCallback;
+
+    // Driving the controller
+
+    /** Runs a console command through the same path as typing it. */
+    public void submitCommand(String command) {
+        if (console == null)
+            throw new IllegalStateException("Controller has not registered a console");
+        console.submit(command);
+    }
+
+    public void undo() {
+        run(undoCallback);
+    }
+
+    public void redo() {
+        run(redoCallback);
+    }
+
+    public void flipHorizontal() {
+        run(flipHorizontalCallback);
+    }
+
+    public void flipVertical() {
+        run(flipVerticalCallback);
+    }
+
+    public void toggleOnion() {
+        run(toggleOnionCallback);
+    }
+
+    /** Presses Esc; returns true if that cancelled a background command. */
+    public boolean pressEscape() {
+        return cancelCallback != null && cancelCallback.getAsBoolean();
+    }
+
+    /** Closes the window, as the title bar's close button would. */
+    public void closeWindow() {
+        run(closeCallback);
+    }
+
+    public void stepFrame(int delta) {
+        if (frameStepCallback != null)
+            frameStepCallback.accept(delta);
+    }
+
+    public void setBrushSize(int size) {
+        if (brushSizeCallback != null)
+            brushSizeCallback.accept(size);
+    }
+
+    public void selectTool(ToolMode mode) {
+        if (toolSelectCallback != null)
+            toolSelectCallback.accept(mode);
+    }
+
+    public void pickColor(Color color) {
+        if (canvasPickCallback != null)
+            canvasPickCallback.accept(color);
+    }
+
+    /** The canvas the controller built; its input methods can be called directly. */
+    public PixelCanvas getCanvas() {
+        return canvas;
+    }
+
+    /** Answer returned by later confirm dialogs, e.g. the recovery prompt. */
+    public void setConfirmAnswer(boolean answer) {
+        this.confirmAnswer = answer;
+    }
+
+    // Recorded output
+
+    public int getCanvasRepaintCount() {
+        return canvasRepaints.get();
+    }
+
+    public int getControlRepaintCount() {
+        return controlRepaints.get();
+    }
+
+    public synchronized List<String> getStatuses() {
+        return new ArrayList<>(statuses);
+    }
+
+    public synchronized String getLastStatus() {
+        return statuses.isEmpty() ? null : statuses.get(statuses.size() - 1);
+    }
+
+    public synchronized List<String> getDialogs() {
+        return new ArrayList<>(dialogs);
+    }
+
+    public int getConsoleProgress() {
+        return consoleProgress;
+    }
+
+    public boolean isAnimationPanelVisible() {
+        return animationVisible;
+    }
+
+    public Color getViewportBackground() {
+        return viewportBackground;
+    }
+
+    public Color getBrushTarget() {
+        return brushTarget;
+    }
+
+    /** Clears counters and recorded messages, e.g. between measured runs. */
+    public synchronized void reset() {
+        canvasRepaints.set(0);
+        controlRepaints.set(0);
+        statuses.clear();
+        dialogs.clear();
+    }
+
+    // PixelArtView
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public void setCanvasCellSize(int size) {
+        cellSize = size;
+        if (canvas != null) {
+            canvas.setCellSize(size);
+        }
+    }
+
+    @Override
+    public int getCanvasCellSize() {
+        return canvas != null ? canvas.getCellSize() : cellSize;
+    }
+
+    @Override
+    public void setViewportBackground(Color color) {
+        viewportBackground = color;
+    }
+
+    @Override
+    public void panViewport(int dx, int dy) {
+    }
+
+    @Override
+    public void recenterViewport() {
+    }
+
+    @Override
+    public void updateBrushTargets(Color color) {
+        brushTarget = color;
+        if (canvas != null) {
+            canvas.setCurrentColor(color);
+        }
+    }
+
+    @Override
+    public void repaintCanvas() {
+        canvasRepaints.incrementAndGet();
+    }
+
+    @Override
+    public void repaintControls() {
+        controlRepaints.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void setConsoleStatus(String status) {
+        statuses.add(status);
+    }
+
+    @Override
+    public String getConsoleStatus() {
+        return getLastStatus();
+    }
+
+    @Override
+    public void setConsoleProgress(int percent) {
+        consoleProgress = percent;
+    }
+
+    @Override
+    public void showAnimationPanel(boolean visible) {
+        animationVisible = visible;
+    }
+
+    @Override
+    public void setCanvasPickCallback(Consumer<Color> callback) {
+        canvasPickCallback = callback;
+    }
+
+    @Override
+    public void setBrushSizeCallback(IntConsumer callback) {
+        brushSizeCallback = callback;
+    }
+
+    @Override
+    public void setToolModeCallback(Supplier<ToolMode> callback) {
+    }
+
+    @Override
+    public void setToolSelectCallback(Consumer<ToolMode> callback) {
+        toolSelectCallback = callback;
+    }
+
+    @Override
+    public void setFlipHorizontalCallback(Runnable callback) {
+        flipHorizontalCallback = callback;
+    }
+
+    @Override
+    public void setFlipVerticalCallback(Runnable callback) {
+        flipVerticalCallback = callback;
+    }
+
+    @Override
+    public void setStampCallback(Supplier<Color[][]> callback) {
+    }
+
+    @Override
+    public void setOnionCallback(Supplier<Color[][][]> callback) {
+    }
+
+    @Override
+    public void setActiveLayerCallback(IntSupplier callback) {
+    }
+
+    @Override
+    public void setLayerVisibleCallback(IntPredicate callback) {
+    }
+
+    @Override
+    public void setPanBlockCallback(Supplier<Boolean> callback) {
+    }
+
+    @Override
+    public void setUndoCallback(Runnable callback) {
+        undoCallback = callback;
+    }
+
+    @Override
+    public void setRedoCallback(Runnable callback) {
+        redoCallback = callback;
+    }
+
+    @Override
+    public void setFrameStepCallback(IntConsumer callback) {
+        frameStepCallback = callback;
+    }
+
+    @Override
+    public void setToggleOnionCallback(Runnable callback) {
+        toggleOnionCallback = callback;
+    }
+
+    @Override
+    public void setCancelCallback(BooleanSupplier callback) {
+        cancelCallback = callback;
+    }
+
+    @Override
+    public void setCloseCallback(Runnable callback) {
+        closeCallback = callback;
+    }
+
+    @Override
+    public void setCanvasController(Object canvasController) {
+        canvas = (PixelCanvas) canvasController;
+    }
+
+    @Override
+    public void setControlBarController(Object controlBarController) {
+    }
+
+    @Override
+    public void setTopBarController(Object topBarController) {
+    }
+
+    @Override
+    public void setStampController(Object stampController) {
+    }
+
+    @Override
+    public void setConsoleController(Object consoleController) {
+        console = (ConsolePanel) consoleController;
+    }
+
+    @Override
+    public void setAnimationController(Object animationController) {
+    }
+
+    @Override
+    public BufferedImage getCanvasImage() {
+        return canvas != null ? canvas.toImage() : null;
+    }
+
+    @Override
+    public BufferedImage getCompositeImage(Color[][][] layerData) {
+        if (canvas == null)
+            return null;
+        return PixelOps.compositeImage(layerData, canvas.getColumns(), canvas.getRows());
+    }
+
+    @Override
+    public synchronized void showErrorDialog(String message) {
+        dialogs.add("error: " + message);
+    }
+
+    @Override
+    public synchronized void showInfoDialog(String message) {
+        dialogs.add("info: " + message);
+    }
+
+    @Override
+    public synchronized boolean showConfirmDialog(String message) {
+        dialogs.add("confirm: " + message);
+        return confirmAnswer;
+    }
+
+    private static void run(Runnable callback) {
+        if (callback != null)
+            callback.run();
+    }
+}
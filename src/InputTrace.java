@@ -0,0 +1,214 @@
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Text format for recorded canvas input. After a header with the canvas size,
+ * each line is "micros kind args": mouse events in canvas pixels, shortcut
+ * actions, console commands, and a state line (tool, colour, brush, layer,
+ * cell size) whenever that state changed since the previous event.
+ *
+ * <pre>
+ * pixel_art input trace 1
+ * canvas 64 64 12
+ * 0 state BRUSH ff000000 1 0 12
+ * 1520 press 130 88 1 1024
+ * 9870 drag 134 90 1024
+ * 18000 release 134 90 1 0
+ * 20400 action undo
+ * 31000 command dither floyd
+ * </pre>
+ */
+class InputTrace {
+    static final String HEADER = "pixel_art input trace 1";
+
+    static final class Event {
+        final long micros;
+        final String kind;
+        final String[] args;
+
+        Event(long micros, String kind, String[] args) {
+            this.micros = micros;
+            this.kind = kind;
+            this.args = args;
+        }
+
+        int intArg(int i) {
+            return Integer.parseInt(args[i]);
+        }
+
+        String rest() {
+            return String.join(" ", args);
+        }
+    }
+
+    final int columns;
+    final int rows;
+    final int cellSize;
+    final List<Event> events;
+
+    private InputTrace(int columns, int rows, int cellSize, List<Event> events) {
+        this.columns = columns;
+        this.rows = rows;
+        this.cellSize = cellSize;
+        this.events = events;
+    }
+
+    static InputTrace read(File file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine()))
+                throw new IOException("Not an input trace: " + file);
+            String[] canvas = in.readLine().split(" ");
+            if (canvas.length != 4 || !canvas[0].equals("canvas"))
+                throw new IOException("Missing canvas line in " + file);
+            List<Event> events = new ArrayList<>();
+            String line;
+            int lineNo = 2;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank())
+                    continue;
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 2)
+                    throw new IOException("Bad trace line " + lineNo + ": " + line);
+                String[] args = parts.length == 3 ? parts[2].split(" ") : new String[0];
+                try {
+                    events.add(new Event(Long.parseLong(parts[0]), parts[1], args));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Bad trace line " + lineNo + ": " + line);
+                }
+            }
+            return new InputTrace(Integer.parseInt(canvas[1]), Integer.parseInt(canvas[2]),
+                    Integer.parseInt(canvas[3]), events);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Bad canvas line in " + file);
+        }
+    }
+
+    /**
+     * Writes events as they happen. Mouse input is captured by listening on the
+     * canvas (after the canvas's own handler); actions and commands are reported
+     * by the controller. All calls come from the EDT.
+     */
+    static final class Recorder extends MouseAdapter {
+        private final File file;
+        private final BufferedWriter out;
+        private final Supplier<String> state;
+        private final long start = System.nanoTime();
+        private String lastState;
+        private PixelCanvas canvas;
+        private int count;
+        private IOException failure;
+
+        Recorder(File file, int columns, int rows, int cellSize, Supplier<String> state) throws IOException {
+            this.file = file;
+            this.state = state;
+            this.out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+            out.write(HEADER + "\ncanvas " + columns + " " + rows + " " + cellSize + "\n");
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        int getEventCount() {
+            return count;
+        }
+
+        /** Moves the mouse listeners to a rebuilt canvas. */
+        void attach(PixelCanvas next) {
+            if (canvas != null) {
+                canvas.removeMouseListener(this);
+                canvas.removeMouseMotionListener(this);
+                canvas.removeMouseWheelListener(this);
+            }
+            canvas = next;
+            if (next != null) {
+                next.addMouseListener(this);
+                next.addMouseMotionListener(this);
+                next.addMouseWheelListener(this);
+            }
+        }
+
+        void action(String name) {
+            write("action " + name);
+        }
+
+        void command(String text) {
+            write("command " + text);
+        }
+
+        /** Stops listening and closes the file; rethrows the first write error. */
+        void stop() throws IOException {
+            attach(null);
+            try {
+                out.close();
+            } catch (IOException ex) {
+                if (failure == null)
+                    failure = ex;
+            }
+            if (failure != null)
+                throw failure;
+        }
+
+        @Override
+        public void mousePressed(MouseEvent e) {
+            mouse("press", e, true);
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            mouse("release", e, true);
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            mouse("drag", e, false);
+        }
+
+        @Override
+        public void mouseMoved(MouseEvent e) {
+            mouse("move", e, false);
+        }
+
+        @Override
+        public void mouseExited(MouseEvent e) {
+            write("exit");
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            write("wheel " + e.getX() + " " + e.getY() + " " + e.getWheelRotation() + " " + e.getModifiersEx());
+        }
+
+        private void mouse(String kind, MouseEvent e, boolean withButton) {
+            write(kind + " " + e.getX() + " " + e.getY() + (withButton ? " " + e.getButton() : "") + " " + e.getModifiersEx());
+        }
+
+        private void write(String line) {
+            if (failure != null)
+                return;
+            long micros = (System.nanoTime() - start) / 1000;
+            try {
+                String current = state.get();
+                if (!current.equals(lastState)) {
+                    lastState = current;
+                    out.write(micros + " state " + current + "\n");
+                }
+                out.write(micros + " " + line + "\n");
+                count++;
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.management.NotificationEmitter;
+import javax.swing.SwingUtilities;
+
+/**
+ * Heap accounting for the mem command and a low-memory watch. Sizes are
+ * estimates for a 64-bit JVM with compressed references: a pixel grid costs
+ * its reference arrays, and each distinct Color object is counted once no
+ * matter how many grids share it. Archived frames that are not decoded cost
+ * nothing on the heap.
+ *
+ * The watch sets a collection usage threshold on every heap pool that supports
+ * one, so the JVM notifies after a GC that left the pool above THRESHOLD of its
+ * maximum; registered controllers then trim caches and undo history on the EDT.
+ */
+final class MemoryMonitor {
+    static final double THRESHOLD = 0.85;
+    private static final int COLOR_BYTES = 32;
+    private static final Set<PixelArtController> watched = Collections.newSetFromMap(new WeakHashMap<>());
+    private static boolean installed;
+
+    private MemoryMonitor() {
+    }
+
+    /** Reference-array cost of a rows x cols grid, without the Color objects. */
+    static long gridBytes(int rows, int cols) {
+        return 16 + rows * (20 + 4L * cols);
+    }
+
+    /** Accumulates grid sizes, counting each grid and each Color object once. */
+    static final class Tally {
+        private final Set<Object> grids = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Color> colors = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        long add(Color[][] grid) {
+            if (grid == null || !grids.add(grid))
+                return 0;
+            long bytes = 16 + 4L * grid.length;
+            for (Color[] row : grid) {
+                bytes += 16 + 4L * row.length;
+                for (Color c : row) {
+                    if (c != null)
+                        colors.add(c);
+                }
+            }
+            return bytes;
+        }
+
+        long add(Color[][][] grids) {
+            long bytes = 16 + 4L * grids.length;
+            for (Color[][] grid : grids) {
+                bytes += add(grid);
+            }
+            return bytes;
+        }
+
+        int colorCount() {
+            return colors.size();
+        }
+
+        long colorBytes() {
+            return (long) colors.size() * COLOR_BYTES;
+        }
+    }
+
+    /** Archives that frames of the model decode from. */
+    static Set<ProjectArchive> archives(PixelArtModel model) {
+        Set<ProjectArchive> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<PixelArtModel.FrameData> frames : model.getLayerFrames()) {
+            for (PixelArtModel.FrameData frame : frames) {
+                if (frame.isArchived())
+                    sources.add(frame.getSource());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * One status line with estimated bytes for layers, frames per layer, undo,
+     * redo, stamp and caches. Each undo or redo step is given as the grids it
+     * holds; grids it shares with the model's frames count only once, as frames.
+     */
+    static String report(PixelArtModel model, Collection<? extends Iterable<Color[][]>> undo,
+            Collection<? extends Iterable<Color[][]>> redo) {
+        Tally tally = new Tally();
+        long layers = tally.add(model.getLayers());
+        StringBuilder frames = new StringBuilder();
+        long framesTotal = 0;
+        List<PixelArtModel.FrameData>[] layerFrames = model.getLayerFrames();
+        String[] names = model.getLayerNames();
+        for (int l = 0; l < layerFrames.length; l++) {
+            long bytes = 0;
+            int archived = 0;
+            for (PixelArtModel.FrameData frame : layerFrames[l]) {
+                if (frame.isArchived()) {
+                    archived++;
+                } else {
+                    bytes += tally.add(frame.getLayer());
+                }
+            }
+            framesTotal += bytes;
+            String name = names != null && l < names.length && names[l] != null ? names[l] : "L" + (l + 1);
+            frames.append(frames.length() == 0 ? "" : ", ").append(name).append(' ')
+                    .append(layerFrames[l].size()).append("f ").append(mb(bytes));
+            if (archived > 0)
+                frames.append(" (").append(archived).append(" archived)");
+        }
+        long undoBytes = 0;
+        for (Iterable<Color[][]> step : undo) {
+            for (Color[][] grid : step) {
+                undoBytes += tally.add(grid);
+            }
+        }
+        long redoBytes = 0;
+        for (Iterable<Color[][]> step : redo) {
+            for (Color[][] grid : step) {
+                redoBytes += tally.add(grid);
+            }
+        }
+        long stamp = tally.add(model.getStampPixels());
+        long cache = 0;
+        int cached = 0;
+        for (ProjectArchive archive : archives(model)) {
+            for (Color[][] grid : archive.cachedFrames()) {
+                cache += tally.add(grid);
+                cached++;
+            }
+        }
+        Runtime rt = Runtime.getRuntime();
+        long accounted = layers + framesTotal + undoBytes + redoBytes + stamp + cache + tally.colorBytes();
+        return String.format(Locale.ROOT,
+                "Heap %d/%d MB, ~%s accounted | layers %s | frames %s [%s] | undo %d %s | redo %d %s | stamp %s | archive cache %d %s | colours %d %s",
+                (rt.totalMemory() - rt.freeMemory()) >> 20, rt.maxMemory() >> 20, mb(accounted), mb(layers),
+                mb(framesTotal), frames, undo.size(), mb(undoBytes), redo.size(), mb(redoBytes), mb(stamp), cached,
+                mb(cache), tally.colorCount(), mb(tally.colorBytes()));
+    }
+
+    private static String mb(long bytes) {
+        return bytes < 1024 * 1024 ? String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0)
+                : String.format(Locale.ROOT, "%.1f MB", bytes / 1048576.0);
+    }
+
+    /** Trims the controller's caches and undo history whenever the heap runs low, for as long as it is reachable. */
+    static synchronized void watch(PixelArtController controller) {
+        watched.add(controller);
+        if (installed)
+            return;
+        installed = true;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * THRESHOLD));
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((n, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType()))
+                lowMemory();
+        }, null, null);
+    }
+
+    // Runs on a JMX notification thread
+    private static void lowMemory() {
+        List<PixelArtController> targets;
+        synchronized (MemoryMonitor.class) {
+            targets = new ArrayList<>(watched);
+        }
+        for (PixelArtController controller : targets) {
+            SwingUtilities.invokeLater(() -> controller.trimMemory(true));
+        }
+    }
+}
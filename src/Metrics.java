@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and timings for the editor's hot paths, read by the
+ * stats console command. Timings keep exact counts, totals and maxima plus a
+ * window of the most recent samples for percentiles, so recording one costs a
+ * short synchronized block and no allocation.
+ */
+final class Metrics {
+    private static final int WINDOW = 1024;
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timing> timings = new ConcurrentHashMap<>();
+    private static volatile long since = System.currentTimeMillis();
+
+    private Metrics() {
+    }
+
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        private void clear() {
+            value.reset();
+        }
+    }
+
+    static final class Timing {
+        private final long[] window = new long[WINDOW];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            window[(int) (count % WINDOW)] = nanos;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /** Records the time since a System.nanoTime() start. */
+        void since(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        synchronized Snapshot snapshot() {
+            long[] recent = Arrays.copyOf(window, (int) Math.min(count, WINDOW));
+            Arrays.sort(recent);
+            return new Snapshot(count, totalNanos, maxNanos, percentile(recent, 0.50), percentile(recent, 0.95),
+                    percentile(recent, 0.99));
+        }
+
+        private synchronized void clear() {
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+    }
+
+    /** Percentiles cover the last 1024 samples; count, total and max cover everything. */
+    record Snapshot(long count, long totalNanos, long maxNanos, long p50Nanos, long p95Nanos, long p99Nanos) {
+        double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+    }
+
+    static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    static Timing timing(String name) {
+        return timings.computeIfAbsent(name, k -> new Timing());
+    }
+
+    static void reset() {
+        counters.values().forEach(Counter::clear);
+        timings.values().forEach(Timing::clear);
+        since = System.currentTimeMillis();
+    }
+
+    /** One status line: counters, then the timings that took the most total time. */
+    static String summary(int maxTimings) {
+        StringBuilder sb = new StringBuilder();
+        counters.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            sb.append(sb.length() == 0 ? "" : "  ").append(e.getKey()).append(' ').append(e.getValue().get());
+        });
+        timings.entrySet().stream()
+                .map(e -> Map.entry(e.getKey(), e.getValue().snapshot()))
+                .filter(e -> e.getValue().count() > 0)
+                .sorted((a, b) -> Long.compare(b.getValue().totalNanos(), a.getValue().totalNanos()))
+                .limit(maxTimings)
+                .forEach(e -> {
+                    Snapshot s = e.getValue();
+                    sb.append(sb.length() == 0 ? "" : " | ")
+                            .append(String.format(Locale.ROOT, "%s %dx p50 %.1f p95 %.1f max %.1f ms", e.getKey(),
+                                    s.count(), s.p50Nanos() / 1e6, s.p95Nanos() / 1e6, s.maxNanos() / 1e6));
+                });
+        return sb.length() == 0 ? "No metrics yet" : sb.toString();
+    }
+
+    /** Writes every counter and timing as JSON, or as CSV when the file name ends in .csv. */
+    static void dump(File file) throws IOException {
+        boolean csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        Files.writeString(file.toPath(), csv ? toCsv() : toJson(), StandardCharsets.UTF_8);
+    }
+
+    private static String toCsv() {
+        StringBuilder sb = new StringBuilder("name,type,count,total_ms,mean_ms,p50_ms,p95_ms,p99_ms,max_ms\n");
+        counters.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e ->
+                sb.append(e.getKey()).append(",counter,").append(e.getValue().get()).append(",,,,,,\n"));
+        timings.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            Snapshot s = e.getValue().snapshot();
+            sb.append(String.format(Locale.ROOT, "%s,timing,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n", e.getKey(), s.count(),
+                    s.totalNanos() / 1e6, s.meanNanos() / 1e6, s.p50Nanos() / 1e6, s.p95Nanos() / 1e6,
+                    s.p99Nanos() / 1e6, s.maxNanos() / 1e6));
+        });
+        return sb.toString();
+    }
+
+    private static String toJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"since\": ").append(since).append(",\n");
+        sb.append("  \"uptimeMs\": ").append(System.currentTimeMillis() - since).append(",\n");
+        sb.append("  \"counters\": {");
+        String[] sep = { "\n" };
+        counters.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            sb.append(sep[0]).append("    \"").append(e.getKey()).append("\": ").append(e.getValue().get());
+            sep[0] = ",\n";
+        });
+        sb.append("\n  },\n  \"timings\": {");
+        sep[0] = "\n";
+        timings.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            Snapshot s = e.getValue().snapshot();
+            sb.append(sep[0]).append("    \"").append(e.getKey()).append("\": ")
+                    .append(String.format(Locale.ROOT,
+                            "{\"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.3f, \"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                            s.count(), s.totalNanos() / 1e6, s.meanNanos() / 1e6, s.p50Nanos() / 1e6,
+                            s.p95Nanos() / 1e6, s.p99Nanos() / 1e6, s.maxNanos() / 1e6));
+            sep[0] = ",\n";
+        });
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+}
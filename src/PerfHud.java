@@ -0,0 +1,141 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Performance overlay for the canvas. The canvas reports paint and composite
+ * times, mouse input and playback ticks are counted, and the text is rebuilt
+ * at most twice a second, so an open HUD costs a few counters per event plus
+ * drawing its own box. All calls come from the EDT.
+ */
+class PerfHud extends MouseAdapter {
+    static final int SAMPLE_MILLIS = 500;
+    private static final int SCALE = 2;
+    private static final int PAD = 6;
+    private static final int LINE_HEIGHT = 7 * SCALE + 4;
+    private static final Color BOX = new Color(20, 22, 26, 200);
+
+    private final IntSupplier targetFps;
+    private final BooleanSupplier playing;
+    private final LongSupplier undoBytes;
+    private final IntSupplier undoEntries;
+
+    private long windowStart = System.nanoTime();
+    private int paints;
+    private long paintNanos;
+    private long paintMaxNanos;
+    private long compositeNanos;
+    private int events;
+    private int playFrames;
+    private String[] lines = { "HUD" };
+
+    PerfHud(IntSupplier targetFps, BooleanSupplier playing, LongSupplier undoBytes, IntSupplier undoEntries) {
+        this.targetFps = targetFps;
+        this.playing = playing;
+        this.undoBytes = undoBytes;
+        this.undoEntries = undoEntries;
+    }
+
+    void painted(long compositeNanos, long paintNanos) {
+        paints++;
+        this.compositeNanos += compositeNanos;
+        this.paintNanos += paintNanos;
+        paintMaxNanos = Math.max(paintMaxNanos, paintNanos);
+    }
+
+    void playbackFrame() {
+        playFrames++;
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        events++;
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        events++;
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        events++;
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        events++;
+    }
+
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        events++;
+    }
+
+    /** Draws the overlay in the top-left corner of the visible part of the canvas. */
+    void draw(Graphics2D g2, Rectangle visible) {
+        sample();
+        Rectangle box = bounds(visible);
+        int x = box.x;
+        int y = box.y;
+        int w = box.width;
+        int h = box.height;
+        g2.setColor(BOX);
+        g2.fillRect(x, y, w, h);
+        g2.setColor(PixelConstants.BUTTON_BORDER);
+        g2.drawRect(x, y, w - 1, h - 1);
+        for (int i = 0; i < lines.length; i++) {
+            Rectangle r = new Rectangle(x + PAD, y + PAD + i * LINE_HEIGHT, w, 7 * SCALE);
+            PixelFont.drawLeft(g2, lines[i], r, SCALE, PixelConstants.TEXT);
+        }
+    }
+
+    /** Bounds of the overlay, for repainting only that part of the canvas. */
+    Rectangle bounds(Rectangle visible) {
+        int longest = 0;
+        for (String line : lines) {
+            longest = Math.max(longest, line.length());
+        }
+        return new Rectangle(visible.x + PAD, visible.y + PAD, longest * 6 * SCALE - SCALE + 2 * PAD,
+                lines.length * LINE_HEIGHT - 4 + 2 * PAD);
+    }
+
+    // Turns the counters of the last window into text; cheap enough to call on every paint
+    private void sample() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < SAMPLE_MILLIS * 1_000_000L && lines.length > 1)
+            return;
+        double seconds = Math.max(1e-9, elapsed / 1e9);
+        Runtime rt = Runtime.getRuntime();
+        long heapUsed = rt.totalMemory() - rt.freeMemory();
+        String paint = paints == 0 ? "PAINT -"
+                : String.format("PAINT %.1fMS MAX %.1fMS", paintNanos / 1e6 / paints, paintMaxNanos / 1e6);
+        String composite = paints == 0 ? "COMPOSITE -" : String.format("COMPOSITE %.1fMS", compositeNanos / 1e6 / paints);
+        String play = playing.getAsBoolean()
+                ? String.format("PLAY %.1f/%d FPS", playFrames / seconds, targetFps.getAsInt())
+                : "PLAY OFF";
+        lines = new String[] {
+                paint,
+                composite,
+                String.format("REPAINTS %.0f/S", paints / seconds),
+                String.format("INPUT %.0f/S", events / seconds),
+                play,
+                String.format("HEAP %d/%dMB", heapUsed >> 20, rt.maxMemory() >> 20),
+                String.format("UNDO %d %.1fMB", undoEntries.getAsInt(), undoBytes.getAsLong() / 1048576.0),
+        };
+        windowStart = now;
+        paints = 0;
+        paintNanos = 0;
+        paintMaxNanos = 0;
+        compositeNanos = 0;
+        events = 0;
+        playFrames = 0;
+    }
+}
@@ -0,0 +1,266 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Headless entry point for build pipelines. Loads each project file without a
+ * view or controller and runs console-style commands against it; files are
+ * processed in parallel, one model per file.
+ *
+ * <pre>
+ * java -cp out PixelArtBatch [-j threads] [-o outDir] "command args" ... -- project.pxp ...
+ * java -cp out PixelArtBatch [-j threads] [-o outDir] -s script.txt -- project.pxp ...
+ * </pre>
+ *
+ * -s reads the commands from a CommandScript, the same file format as the
+ * console's run command, so a script tried in the editor can be applied to a
+ * folder of projects without a window.
+ *
+ * Output paths may contain {name} (the project file name without extension);
+ * when omitted they default to {name} with the command's extension in outDir,
+ * or next to the project without -o. Exit code 0 means every file succeeded,
+ * 1 that at least one failed and 2 a usage error.
+ */
+public class PixelArtBatch {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "Usage: PixelArtBatch [-j threads] [-o outDir] \"command args\" ... -- project ...\n"
+            + "       PixelArtBatch [-j threads] [-o outDir] -s script.txt -- project ...\n"
+            + "Commands: resample <factor> | dither [--all-layers] [--all-frames] floyd|ordered | save [file.png]\n"
+            + "          save-gif [file.gif] | save-sequence [base.png] | save-sheet [file.png] | save-project [file]";
+
+    public static void main(String[] args) {
+        // before any AWT class loads, so ImageIO and BufferedImage never look for a display
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outDir = null;
+        List<String[]> commands = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        boolean inFiles = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (inFiles) {
+                    files.add(new File(arg));
+                } else if (arg.equals("--")) {
+                    inFiles = true;
+                } else if (arg.equals("-j")) {
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (arg.equals("-o")) {
+                    outDir = new File(args[++i]);
+                } else if (arg.equals("-s")) {
+                    CommandScript script;
+                    try {
+                        script = CommandScript.read(new File(args[++i]));
+                    } catch (IOException ex) {
+                        err.println("Cannot read script " + args[i] + ": " + ex.getMessage());
+                        return EXIT_USAGE;
+                    }
+                    for (CommandScript.Line line : script.lines) {
+                        String problem = addCommand(line.parts(), commands);
+                        if (problem != null) {
+                            err.println(script.file + " line " + line.number() + ": " + problem);
+                            return EXIT_USAGE;
+                        }
+                    }
+                } else {
+                    String problem = addCommand(arg.trim().split("\\s+"), commands);
+                    if (problem != null) {
+                        err.println(problem);
+                        err.println(USAGE);
+                        return EXIT_USAGE;
+                    }
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (commands.isEmpty() || files.isEmpty()) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (outDir != null && !outDir.isDirectory() && !outDir.mkdirs()) {
+            err.println("Cannot create output directory " + outDir);
+            return EXIT_FAILED;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        List<Future<Boolean>> results = new ArrayList<>();
+        File dir = outDir;
+        for (File file : files) {
+            results.add(pool.submit(() -> process(file, commands, dir, out, err)));
+        }
+        int failed = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    failed++;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failed++;
+            } catch (ExecutionException ex) {
+                err.println("Unexpected failure: " + ex.getCause());
+                failed++;
+            }
+        }
+        pool.shutdown();
+        out.printf("%d file(s), %d failed, %d ms%n", files.size(), failed, millisSince(start));
+        return failed == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private static String addCommand(String[] parts, List<String[]> commands) {
+        parts[0] = parts[0].toLowerCase(Locale.ROOT);
+        String problem = validate(parts);
+        if (problem == null)
+            commands.add(parts);
+        return problem;
+    }
+
+    private static String validate(String[] parts) {
+        return switch (parts[0]) {
+            case "resample" -> parts.length != 2 ? "resample needs a factor"
+                    : Integer.parseInt(parts[1]) <= 1 ? "resample factor must be > 1" : null;
+            case "dither" -> {
+                String method;
+                try {
+                    method = ditherScope(parts).args();
+                } catch (IllegalArgumentException ex) {
+                    yield "dither: " + ex.getMessage();
+                }
+                yield method.equals("floyd") || method.equals("ordered") ? null : "dither needs floyd or ordered";
+            }
+            case "save", "save-gif", "save-sequence", "save-sheet", "save-project" ->
+                    parts.length <= 2 ? null : parts[0] + " takes at most one path";
+            default -> "Unknown command: " + parts[0];
+        };
+    }
+
+    // Runs every command on one project; returns false after the first failure
+    private static boolean process(File file, List<String[]> commands, File outDir, PrintStream out, PrintStream err) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        File dir = outDir != null ? outDir : file.getAbsoluteFile().getParentFile();
+        PixelArtModel model = new PixelArtModel();
+        PixelArtFileHandler fileHandler = new PixelArtFileHandler(model);
+        String step = "load";
+        try {
+            long t = System.nanoTime();
+            fileHandler.loadProject(file.getPath());
+            report(out, name, "load", millisSince(t));
+            for (String[] cmd : commands) {
+                step = String.join(" ", cmd);
+                t = System.nanoTime();
+                String detail = execute(cmd, model, fileHandler, outDir, dir, baseName);
+                report(out, name, detail, millisSince(t));
+            }
+            return true;
+        } catch (Exception ex) {
+            synchronized (err) {
+                err.println(name + "  FAILED " + step + ": " + ex.getMessage());
+            }
+            return false;
+        } finally {
+            // the project and anything saved from it stay open until released; a long run would pile them up
+            fileHandler.releaseArchives(Set.of());
+        }
+    }
+
+    private static String execute(String[] cmd, PixelArtModel model, PixelArtFileHandler fileHandler, File outDir,
+            File dir, String baseName) throws Exception {
+        switch (cmd[0]) {
+            case "resample" -> {
+                model.resample(Integer.parseInt(cmd[1]));
+                return "resample x" + cmd[1] + " -> " + model.getColumns() + "x" + model.getRows();
+            }
+            case "dither" -> {
+                // same scope as the console's dither: the shown frame of the active layer unless flags widen it
+                PixelArtController.Scope scope = ditherScope(cmd);
+                Consumer<Color[][]> op = scope.args().equals("floyd")
+                        ? layer -> PixelOps.ditherFloydSteinberg(layer, PixelConstants.CANVAS_BG)
+                        : layer -> PixelOps.ditherOrdered(layer, PixelConstants.CANVAS_BG);
+                for (int l = 0; l < model.getLayerCount(); l++) {
+                    if (!scope.allLayers() && l != model.getActiveLayer())
+                        continue;
+                    if (scope.allFrames()) {
+                        model.transformLayerFrames(l, op);
+                    } else {
+                        model.transformCurrentFrame(l, op);
+                    }
+                }
+                return "dither " + scope.args() + " (" + scope.describe() + ")";
+            }
+            case "save" -> {
+                String path = target(cmd, outDir, dir, baseName, "{name}.png");
+                fileHandler.saveImage(path);
+                return "save " + path;
+            }
+            case "save-gif" -> {
+                String path = target(cmd, outDir, dir, baseName, "{name}.gif");
+                int frames = fileHandler.saveGif(path, model.getFrameRate());
+                return "save-gif " + path + " (" + frames + " frames)";
+            }
+            case "save-sequence" -> {
+                String path = target(cmd, outDir, dir, baseName, "{name}.png");
+                SequenceExport export = fileHandler.prepareSequence(path);
+                int frames = export.run(null);
+                return "save-sequence " + export.getDirectory() + " (" + frames + " frames, "
+                        + export.getSkippedCount() + " unchanged)";
+            }
+            case "save-sheet" -> {
+                String path = target(cmd, outDir, dir, baseName, "{name}_sheet.png");
+                int sprites = fileHandler.saveSheet(path, model.getFrameRate());
+                return "save-sheet " + path + " (" + sprites + " sprites)";
+            }
+            case "save-project" -> {
+                String path = target(cmd, outDir, dir, baseName, "{name}.pxp");
+                int written = fileHandler.saveProject(path);
+                return "save-project " + path + " (" + written + " frames written)";
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + cmd[0]);
+        }
+    }
+
+    private static PixelArtController.Scope ditherScope(String[] parts) {
+        return PixelArtController.Scope.parse(String.join(" ", Arrays.copyOfRange(parts, 1, parts.length)));
+    }
+
+    // explicit relative paths resolve against outDir (or the working directory), defaults against dir
+    private static String target(String[] cmd, File outDir, File dir, String baseName, String fallback) {
+        boolean explicit = cmd.length > 1;
+        File f = new File((explicit ? cmd[1] : fallback).replace("{name}", baseName));
+        if (f.isAbsolute() || (explicit && outDir == null))
+            return f.getPath();
+        return new File(explicit ? outDir : dir, f.getPath()).getPath();
+    }
+
+    private static void report(PrintStream out, String file, String detail, long ms) {
+        synchronized (out) {
+            out.printf("%s  %s  %d ms%n", file, detail, ms);
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
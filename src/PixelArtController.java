@@ -1,7 +1,14 @@
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 
@@ -10,9 +17,15 @@ public class PixelArtController {
     private final PixelArtView view;
     private PixelArtFileHandler fileHandler;
     private PixelCanvas canvas;
-    private final java.util.Deque<Color[][][]> undoStack = new java.util.ArrayDeque<>();
-    private final java.util.Deque<Color[][][]> redoStack = new java.util.ArrayDeque<>();
+    private final java.util.Deque<UndoState> undoStack = new java.util.ArrayDeque<>();
+    private final java.util.Deque<UndoState> redoStack = new java.util.ArrayDeque<>();
     private static final int UNDO_LIMIT = 30;
+    private static final int UNDO_KEEP_ON_TRIM = 5;
+    private static final java.util.Set<String> SCRIPT_COMMANDS = java.util.Set.of("new", "load", "load-sheet",
+            "load-gif", "load-project", "save", "save-gif", "save-sheet", "save-sequence", "save-project", "background",
+            "layer", "resample", "dither", "blur", "flip", "map");
+    private static final Dimension HEADLESS_SCREEN = new Dimension(1920, 1080);
+    private static final Metrics.Timing UNDO_SNAPSHOT_TIME = Metrics.timing("undo.snapshot");
     private ConsolePanel console;
     private ControlBar controlBar;
     private TopBar topBar;
@@ -21,11 +34,24 @@ public class PixelArtController {
     private AnimationPanel animationPanel;
     private Timer playTimer;
     private int playCursor = 0;
+    private final AutosaveService autosave;
+    private SequenceExport sequenceExport;
+    // set by the command being handled when it did not do what it was asked; scripts stop on it
+    private boolean commandFailed;
+    private BackgroundTask<?> task;
+    private boolean scriptRunning;
+    private boolean canvasDirty;
+    private boolean controlsDirty;
+    private boolean timelineDirty;
+    private InputTrace.Recorder recorder;
+    private PerfHud hud;
+    private Timer hudTimer;
 
     public PixelArtController(PixelArtModel model, PixelArtView view) {
         this.model = model;
         this.view = view;
         this.fileHandler = new PixelArtFileHandler(model);
+        this.autosave = new AutosaveService(model, AutosaveService.defaultRecoveryFile(), view::setConsoleStatus);
         setupViewCallbacks();
         normalizeColorState();
         model.setCanvasCellSize(computeMaxCellSizeForScreen());
@@ -40,24 +66,34 @@ public class PixelArtController {
         view.recenterViewport();
         view.updateBrushTargets(model.getCurrentBrushColor());
         syncColorControls();
+        MemoryMonitor.watch(this);
     }
 
     private void setupViewCallbacks() {
         view.setCanvasPickCallback(this::pickBrushColor);
-        view.setBrushSizeCallback(this::setBrushSize);
+        view.setBrushSizeCallback(size -> { trace("brush " + size); setBrushSize(size); });
         view.setToolModeCallback(model::getToolMode);
         view.setStampCallback(model::getStampPixels);
         view.setOnionCallback(this::getOnionComposite);
         view.setActiveLayerCallback(model::getActiveLayer);
         view.setLayerVisibleCallback(model::isLayerVisible);
         view.setPanBlockCallback(() -> false); // Implement if needed
-        view.setUndoCallback(this::performUndo);
-        view.setRedoCallback(this::performRedo);
-        view.setToolSelectCallback(this::selectTool);
-        view.setFrameStepCallback(this::stepFrame);
-        view.setToggleOnionCallback(this::toggleOnion);
-        view.setFlipHorizontalCallback(this::flipHorizontal);
-        view.setFlipVerticalCallback(this::flipVertical);
+        view.setUndoCallback(() -> { trace("undo"); performUndo(); });
+        view.setRedoCallback(() -> { trace("redo"); performRedo(); });
+        view.setToolSelectCallback(mode -> { trace("tool " + mode); selectTool(mode); });
+        view.setFrameStepCallback(delta -> { trace("frame " + delta); stepFrame(delta); });
+        view.setToggleOnionCallback(() -> { trace("onion"); toggleOnion(); });
+        view.setCancelCallback(this::cancelBackgroundWork);
+        view.setCloseCallback(this::exit);
+        view.setFlipHorizontalCallback(() -> { trace("flip-h"); flipHorizontal(); });
+        view.setFlipVerticalCallback(() -> { trace("flip-v"); flipVertical(); });
+    }
+
+    // Shortcuts report here so an input recording sees them
+    private void trace(String action) {
+        if (recorder != null) {
+            recorder.action(action);
+        }
     }
 
     private void buildCanvas() {
@@ -79,6 +115,13 @@ public class PixelArtController {
                 model.getLayers());
         canvas.setCurrentColor(model.getCurrentBrushColor());
         canvas.setBrushSize(model.getBrushSize());
+        canvas.setBlendingSupplier(model::getBlending);
+        if (recorder != null) {
+            recorder.attach(canvas);
+        }
+        if (hud != null) {
+            canvas.setHud(hud);
+        }
         view.setCanvasController(canvas);
     }
 
@@ -143,6 +186,14 @@ public class PixelArtController {
             public String getLayerName(int idx) { return model.getLayerName(idx); }
             @Override
             public boolean isLayerVisible(int idx) { return model.isLayerVisible(idx); }
+            @Override
+            public int getLayerCount() { return model.getLayerCount(); }
+            @Override
+            public void addLayer() { PixelArtController.this.addLayer(); }
+            @Override
+            public void removeLayer() { removeActiveLayer(); }
+            @Override
+            public void mergeLayerDown() { mergeActiveLayerDown(); }
         };
         controlBar = new ControlBar(host);
         view.setControlBarController(controlBar);
@@ -241,6 +292,13 @@ public class PixelArtController {
         }
         String[] parts = input.trim().split("\\s+");
         String cmd = parts[0].toLowerCase();
+        // profile records the command it wraps when that runs
+        if (recorder != null && !scriptRunning && !cmd.equals("record") && !cmd.equals("profile")) {
+            recorder.command(input.trim());
+        }
+        long commandStart = System.nanoTime();
+        boolean known = true;
+        commandFailed = false;
         try {
             switch (cmd) {
                 case "new" -> {
@@ -254,12 +312,12 @@ public class PixelArtController {
                         rebuildCanvas(w, h);
                         view.setConsoleStatus("New canvas " + w + "x" + h);
                     } else {
-                        view.setConsoleStatus("Usage: new <size> or new <w> <h>");
+                        view.setConsoleStatus(failure("Usage: new <size> or new <w> <h>"));
                     }
                 }
                 case "resolution" -> view.setConsoleStatus(model.getColumns() + "x" + model.getRows());
                 case "help" -> {
-                    view.setConsoleStatus("Commands: new | load | save | save-sequence | save-gif | save-project | load-project | animate | background | resolution | exit");
+                    view.setConsoleStatus("Commands: new | load | load-sheet | load-gif | save | save-sequence | cancel | save-gif | save-sheet | save-project | load-project | run | record | hud | stats | profile | mem | autosave | animate | background | layer | resample | dither | blur | flip | map | resolution | exit");
                 }
             case "animate" -> {
                 view.showAnimationPanel(true);
@@ -268,55 +326,107 @@ public class PixelArtController {
             }
             case "save" -> {
                 if (parts.length < 2) {
-                    view.setConsoleStatus("Usage: save <file.png>");
+                    view.setConsoleStatus(failure("Usage: save <file.png>"));
                     break;
                 }
                 try {
                     fileHandler.saveImage(parts[1]);
                     view.setConsoleStatus("Saved " + parts[1]);
                 } catch (IOException ex) {
-                    view.setConsoleStatus("Save failed: " + ex.getMessage());
+                    view.setConsoleStatus(failure("Save failed: " + ex.getMessage()));
                 }
             }
             case "save-sequence" -> {
                 if (parts.length < 2) {
-                    view.setConsoleStatus("Usage: save-sequence <base.png>");
+                    view.setConsoleStatus(failure("Usage: save-sequence <base.png>"));
+                    break;
+                }
+                if (sequenceExport != null) {
+                    view.setConsoleStatus(failure("Sequence export already running (cancel to stop)"));
                     break;
                 }
                 try {
-                    fileHandler.saveSequence(parts[1]);
-                    view.setConsoleStatus("Saved sequence for " + parts[1]);
+                    startSequenceExport(fileHandler.prepareSequence(parts[1]));
                 } catch (IOException ex) {
-                    view.setConsoleStatus("Save-seq failed: " + ex.getMessage());
+                    view.setConsoleStatus(failure("Save-seq failed: " + ex.getMessage()));
+                }
+            }
+            case "run" -> {
+                if (parts.length != 2) {
+                    view.setConsoleStatus(failure("Usage: run <script.txt>"));
+                } else {
+                    runScript(parts[1]);
+                }
+            }
+            case "stats" -> showStats(parts);
+            case "mem" -> {
+                if (parts.length == 1) {
+                    view.setConsoleStatus(MemoryMonitor.report(model, undoStack.stream().map(UndoState::grids).toList(),
+                            redoStack.stream().map(UndoState::grids).toList()));
+                } else if (parts[1].equalsIgnoreCase("trim")) {
+                    trimMemory(false);
+                } else {
+                    view.setConsoleStatus(failure("Usage: mem | mem trim"));
+                }
+            }
+            case "profile" -> profile(input.trim().substring(parts[0].length()).trim());
+            case "hud" -> {
+                boolean show = parts.length > 1 ? parts[1].equalsIgnoreCase("on") : hud == null;
+                setHudVisible(show);
+                view.setConsoleStatus(show ? "Performance HUD on" : "Performance HUD off");
+            }
+            case "record" -> {
+                if (parts.length != 2) {
+                    view.setConsoleStatus(failure("Usage: record <trace.txt> | record stop"));
+                } else if (parts[1].equalsIgnoreCase("stop")) {
+                    stopRecording();
+                } else {
+                    startRecording(parts[1]);
+                }
+            }
+            case "cancel" -> {
+                if (!cancelBackgroundWork()) {
+                    view.setConsoleStatus("Nothing to cancel");
                 }
             }
                 case "save-gif" -> {
                     if (parts.length < 2) {
-                        view.setConsoleStatus("Usage: save-gif <file.gif>");
+                        view.setConsoleStatus(failure("Usage: save-gif <file.gif>"));
                         break;
                     }
+                String gifPath = parts[1];
+                startTask("Saving GIF", fileHandler.prepareGif(gifPath, model.getFrameRate()),
+                        gifFrames -> "GIF saved to " + gifPath + " (" + gifFrames + " frames)");
+            }
+            case "save-sheet" -> {
+                if (parts.length < 2) {
+                    view.setConsoleStatus(failure("Usage: save-sheet <file.png>"));
+                    break;
+                }
                 try {
-                    fileHandler.saveGif(parts[1], model.getFrameRate());
-                    view.setConsoleStatus("GIF saved to " + parts[1]);
+                    int sprites = fileHandler.saveSheet(parts[1], model.getFrameRate());
+                    view.setConsoleStatus("Sheet saved to " + parts[1] + " (" + sprites + " unique frames)");
                 } catch (IOException ex) {
-                    view.setConsoleStatus("Save-gif failed: " + ex.getMessage());
+                    view.setConsoleStatus(failure("Save-sheet failed: " + ex.getMessage()));
                 }
             }
             case "save-project" -> {
                 if (parts.length < 2) {
-                    view.setConsoleStatus("Usage: save-project <file>");
+                    view.setConsoleStatus(failure("Usage: save-project <file>"));
                     break;
                 }
                 try {
-                    fileHandler.saveProject(parts[1]);
-                    view.setConsoleStatus("Project saved to " + parts[1]);
+                    int written = fileHandler.saveProject(parts[1]);
+                    releaseUnusedArchives();
+                    autosave.markSaved();
+                    view.setConsoleStatus("Project saved to " + parts[1] + " (" + written + " frames written)");
                 } catch (IOException ex) {
-                    view.setConsoleStatus("Save-project failed: " + ex.getMessage());
+                    view.setConsoleStatus(failure("Save-project failed: " + ex.getMessage()));
                 }
             }
             case "load" -> {
                 if (parts.length < 2) {
-                    view.setConsoleStatus("Usage: load <file.png>");
+                    view.setConsoleStatus(failure("Usage: load <file.png>"));
                     break;
                 }
                 try {
@@ -324,25 +434,91 @@ public class PixelArtController {
                     view.setConsoleStatus("Loaded " + parts[1]);
                     repaintTimeline();
                 } catch (IOException ex) {
-                    view.setConsoleStatus("Load failed: " + ex.getMessage());
+                    view.setConsoleStatus(failure("Load failed: " + ex.getMessage()));
                 }
             }
-            case "load-project" -> {
+            case "load-sheet" -> {
+                if (parts.length < 4) {
+                    view.setConsoleStatus(failure("Usage: load-sheet <file.png> <w> <h>"));
+                    break;
+                }
+                try {
+                    int frames = fileHandler.loadSheet(parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), this);
+                    view.setConsoleStatus("Loaded " + frames + " frames from " + parts[1]);
+                } catch (IOException ex) {
+                    view.setConsoleStatus(failure("Load-sheet failed: " + ex.getMessage()));
+                }
+            }
+            case "load-gif" -> {
                 if (parts.length < 2) {
-                    view.setConsoleStatus("Usage: load-project <file>");
+                    view.setConsoleStatus(failure("Usage: load-gif <file.gif>"));
                     break;
                 }
                 try {
-                    fileHandler.loadProject(parts[1], this);
-                    view.setConsoleStatus("Project loaded from " + parts[1]);
-                    repaintTimeline();
-                } catch (IOException | ClassNotFoundException ex) {
-                    view.setConsoleStatus("Load-project failed: " + ex.getMessage());
+                    int frames = fileHandler.loadGif(parts[1], this);
+                    view.setConsoleStatus("Loaded " + frames + " frames from " + parts[1] + " at " + model.getFrameRate() + " fps");
+                } catch (IOException ex) {
+                    view.setConsoleStatus(failure("Load-gif failed: " + ex.getMessage()));
                 }
             }
+            case "load-project" -> {
+                if (parts.length < 2) {
+                    view.setConsoleStatus(failure("Usage: load-project <file>"));
+                    break;
+                }
+                String projectPath = parts[1];
+                startTask("Loading project", task -> fileHandler.readProject(projectPath), install -> {
+                    install.run();
+                    clearUndoStacks();
+                    releaseUnusedArchives();
+                    autosave.markSaved();
+                    refreshViewFromModel();
+                    applyAllCurrentFrames();
+                    return "Project loaded from " + projectPath;
+                });
+            }
+                case "blur" -> {
+                    Scope scope = Scope.parse(input.trim().substring(parts[0].length()));
+                    String[] args = scope.args().isEmpty() ? new String[0] : scope.args().split("\\s+");
+                    if (args.length == 1) {
+                        int radius = Integer.parseInt(args[0]);
+                        startFramesTask("Blurring", scope, (layer, f) -> PixelOps.blurGaussian(layer, radius),
+                                "Blurred (radius " + radius + ", " + scope.describe() + ")");
+                    } else if (args.length == 3 && args[0].equalsIgnoreCase("motion")) {
+                        double angle = Double.parseDouble(args[1]);
+                        int amount = Integer.parseInt(args[2]);
+                        startFramesTask("Blurring", scope, (layer, f) -> PixelOps.blurMotion(layer, angle, amount),
+                                "Motion blurred (" + scope.describe() + ")");
+                    } else {
+                        view.setConsoleStatus(failure("Usage: blur " + Scope.FLAGS + " <radius> | blur " + Scope.FLAGS + " motion <angle> <amount>"));
+                    }
+                }
+                case "flip" -> {
+                    Scope scope = Scope.parse(input.trim().substring(parts[0].length()));
+                    switch (scope.args().toLowerCase()) {
+                        case "h" -> startFramesTask("Flipping", scope, (layer, f) -> PixelOps.flipHorizontal(layer),
+                                "Flipped horizontally (" + scope.describe() + ")");
+                        case "v" -> startFramesTask("Flipping", scope, (layer, f) -> PixelOps.flipVertical(layer),
+                                "Flipped vertically (" + scope.describe() + ")");
+                        default -> view.setConsoleStatus(failure("Usage: flip " + Scope.FLAGS + " h|v"));
+                    }
+                }
+                case "layer" -> layerCommand(parts);
+                case "map" -> {
+                    Scope scope;
+                    PixelExpr expr;
+                    try {
+                        scope = Scope.parse(input.trim().substring(parts[0].length()));
+                        expr = PixelExpr.compile(scope.args());
+                    } catch (IllegalArgumentException ex) {
+                        view.setConsoleStatus(failure("Usage: map " + Scope.FLAGS + " <r|g|b|a|name = expr; ...> (" + ex.getMessage() + ")"));
+                        break;
+                    }
+                    startFramesTask("Mapping", scope, expr::apply, "Mapped " + scope.describe());
+                }
                 case "background" -> {
                     if (parts.length < 4) {
-                        view.setConsoleStatus("Usage: background <r> <g> <b>");
+                        view.setConsoleStatus(failure("Usage: background <r> <g> <b>"));
                         return;
                     }
                     int r = clamp(Integer.parseInt(parts[1]));
@@ -351,29 +527,626 @@ public class PixelArtController {
                     setViewportBackground(new Color(r, g, b));
                     view.setConsoleStatus("Background set");
                 }
+                case "dither" -> {
+                    Scope scope = Scope.parse(input.trim().substring(parts[0].length()));
+                    switch (scope.args().toLowerCase()) {
+                        case "floyd" -> startFramesTask("Dithering", scope,
+                                (layer, f) -> PixelOps.ditherFloydSteinberg(layer, PixelConstants.CANVAS_BG),
+                                "Dithered (Floyd-Steinberg, " + scope.describe() + ")");
+                        case "ordered" -> startFramesTask("Dithering", scope,
+                                (layer, f) -> PixelOps.ditherOrdered(layer, PixelConstants.CANVAS_BG),
+                                "Dithered (ordered, " + scope.describe() + ")");
+                        default -> view.setConsoleStatus(failure("Usage: dither " + Scope.FLAGS + " floyd|ordered"));
+                    }
+                }
                 case "resample" -> {
                     if (parts.length < 2) {
-                        view.setConsoleStatus("Usage: resample <factor>");
+                        view.setConsoleStatus(failure("Usage: resample <factor>"));
                         return;
                     }
                     try {
                         int factor = Integer.parseInt(parts[1]);
                         if (factor <= 1) {
-                            view.setConsoleStatus("Factor must be > 1");
+                            view.setConsoleStatus(failure("Factor must be > 1"));
                             return;
                         }
-                        resampleCanvas(factor);
-                        view.setConsoleStatus("Resampled x" + factor);
+                        startResample(factor);
                     } catch (NumberFormatException ex) {
-                        view.setConsoleStatus("Factor must be a number");
+                        view.setConsoleStatus(failure("Factor must be a number"));
                     }
                 }
-                case "exit" -> System.exit(0);
-                default -> view.setConsoleStatus("Unknown command: " + cmd);
+                case "autosave" -> {
+                    if (parts.length < 2) {
+                        view.setConsoleStatus(autosave.isEnabled() ? "Autosave on" : "Autosave off");
+                        break;
+                    }
+                    if (parts[1].equalsIgnoreCase("off")) {
+                        autosave.setInterval(0);
+                        view.setConsoleStatus("Autosave off");
+                    } else if (parts[1].equalsIgnoreCase("now")) {
+                        autosave.saveNow();
+                        view.setConsoleStatus("Autosaving to " + autosave.getRecoveryFile());
+                    } else {
+                        int seconds = Integer.parseInt(parts[1]);
+                        autosave.setInterval(seconds);
+                        view.setConsoleStatus(seconds > 0 ? "Autosave every " + seconds + "s" : "Autosave off");
+                    }
+                }
+                case "exit" -> exit();
+                default -> {
+                    known = false;
+                    view.setConsoleStatus(failure("Unknown command: " + cmd));
+                }
             }
         } catch (NumberFormatException ex) {
-            view.setConsoleStatus("Invalid number");
+            view.setConsoleStatus(failure("Invalid number"));
+        } catch (IllegalArgumentException ex) {
+            view.setConsoleStatus(failure("Invalid " + cmd + ": " + ex.getMessage()));
+        }
+        if (known && !cmd.equals("profile")) {
+            Metrics.timing("command." + cmd).since(commandStart);
+        }
+    }
+
+    /**
+     * Runs a command script as one transaction: a single undo step, and canvas,
+     * control and timeline repaints held back until the last line. The undo step
+     * keeps the whole project, so it also reverts size and layer changes, and
+     * commands that would clear the history leave it alone while a script runs.
+     * Stops at the first line whose command reports a failure; what ran before
+     * it stays applied and undoes with the rest.
+     */
+    private void runScript(String path) {
+        if (scriptRunning) {
+            view.setConsoleStatus(failure("Scripts cannot run other scripts"));
+            return;
+        }
+        if (task != null) {
+            view.setConsoleStatus(failure(task.getName() + " is still running (Esc to cancel)"));
+            return;
+        }
+        CommandScript script;
+        try {
+            script = CommandScript.read(new File(path));
+        } catch (IOException ex) {
+            view.setConsoleStatus(failure("Run failed: " + ex.getMessage()));
+            return;
+        }
+        for (CommandScript.Line line : script.lines) {
+            String name = line.parts()[0].toLowerCase();
+            if (!SCRIPT_COMMANDS.contains(name)) {
+                view.setConsoleStatus(failure("Run: line " + line.number() + ": " + name + " cannot be used in scripts"));
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        recordUndoSnapshot(UndoDepth.PROJECT);
+        scriptRunning = true;
+        int ran = 0;
+        String stopped = null;
+        try {
+            for (CommandScript.Line line : script.lines) {
+                handleCommand(line.text());
+                if (commandFailed) {
+                    stopped = "line " + line.number() + ": " + view.getConsoleStatus();
+                    break;
+                }
+                ran++;
+            }
+        } finally {
+            scriptRunning = false;
+            flushDeferredRepaints();
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        view.setConsoleStatus(stopped != null
+                ? failure("Script stopped at " + stopped + " (" + ran + " commands applied)")
+                : "Ran " + ran + " commands from " + path + " in " + ms + " ms");
+    }
+
+    // Marks the command being handled as failed and passes its status through
+    private String failure(String status) {
+        commandFailed = true;
+        return status;
+    }
+
+    private void repaintCanvas() {
+        if (canvas != null) {
+            canvas.layersChanged();
+        }
+        if (scriptRunning) {
+            canvasDirty = true;
+        } else {
+            view.repaintCanvas();
+        }
+    }
+
+    private void repaintControls() {
+        if (scriptRunning) {
+            controlsDirty = true;
+        } else {
+            view.repaintControls();
+        }
+    }
+
+    private void flushDeferredRepaints() {
+        if (canvasDirty) {
+            view.repaintCanvas();
+        }
+        if (controlsDirty) {
+            view.repaintControls();
+        }
+        if (timelineDirty) {
+            repaintTimeline();
+        }
+        canvasDirty = false;
+        controlsDirty = false;
+        timelineDirty = false;
+    }
+
+    private void showStats(String[] parts) {
+        if (parts.length == 1) {
+            view.setConsoleStatus(Metrics.summary(3));
+        } else if (parts[1].equalsIgnoreCase("reset")) {
+            Metrics.reset();
+            view.setConsoleStatus("Stats reset");
+        } else if (parts[1].equalsIgnoreCase("dump") && parts.length == 3) {
+            try {
+                Metrics.dump(new File(parts[2]));
+                view.setConsoleStatus("Stats written to " + parts[2]);
+            } catch (IOException ex) {
+                view.setConsoleStatus(failure("Stats dump failed: " + ex.getMessage()));
+            }
+        } else {
+            view.setConsoleStatus(failure("Usage: stats | stats dump <file.json|file.csv> | stats reset"));
+        }
+    }
+
+    /**
+     * Runs a command on this thread and appends its wall time, CPU time and the
+     * bytes it allocated to whatever status it set. Work the command hands to a
+     * background thread, such as save-sequence, is not included.
+     */
+    private void profile(String command) {
+        if (command.isEmpty()) {
+            view.setConsoleStatus(failure("Usage: profile <command>"));
+            return;
+        }
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean t
+                && t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled() ? t : null;
+        boolean cpu = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        long thread = Thread.currentThread().getId();
+        String before = view.getConsoleStatus();
+        long allocatedBefore = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+        long cpuBefore = cpu ? threads.getCurrentThreadCpuTime() : 0;
+        long start = System.nanoTime();
+        handleCommand(command);
+        long wall = System.nanoTime() - start;
+        long cpuNanos = cpu ? threads.getCurrentThreadCpuTime() - cpuBefore : -1;
+        long allocated = allocation != null ? allocation.getThreadAllocatedBytes(thread) - allocatedBefore : -1;
+
+        String after = view.getConsoleStatus();
+        StringBuilder sb = new StringBuilder();
+        sb.append(after != null && !after.equals(before) ? after : command).append(" | ");
+        sb.append(String.format("%.1f ms", wall / 1e6));
+        if (cpuNanos >= 0) {
+            sb.append(String.format(", %.1f ms CPU", cpuNanos / 1e6));
+        }
+        if (allocated >= 0) {
+            sb.append(String.format(", %.1f MB allocated", allocated / 1048576.0));
+        }
+        view.setConsoleStatus(sb.toString());
+    }
+
+    /**
+     * Runs a long command on the background thread; only one runs at a time.
+     * The work must only read what it captured when it was created, and apply
+     * runs on the EDT to install the result and return the status to show.
+     */
+    private <T> void startTask(String name, BackgroundTask.Work<T> work, Function<T, String> apply) {
+        if (scriptRunning) {
+            // the next script line depends on this result, so run it in place
+            BackgroundTask<T> now = new BackgroundTask<>(name, work, apply);
+            String status = now.runNow();
+            view.setConsoleStatus(now.hasFailed() ? failure(status) : status);
+            return;
+        }
+        if (task != null) {
+            view.setConsoleStatus(failure(task.getName() + " is still running (Esc to cancel)"));
+            return;
+        }
+        BackgroundTask<T> job = new BackgroundTask<>(name, work, apply);
+        task = job;
+        // the work reads a snapshot of these frames, so their archives stay open until it ends
+        java.util.Set<ProjectArchive> held = ProjectArchive.retainAll(model.getLayerFrames());
+        view.setConsoleStatus(job.describe());
+        view.setConsoleProgress(0);
+        job.start(() -> {
+            if (task == job) {
+                view.setConsoleStatus(job.describe());
+                view.setConsoleProgress(job.getPercent());
+            }
+        }, status -> {
+            ProjectArchive.releaseAll(held);
+            task = null;
+            view.setConsoleProgress(-1);
+            view.setConsoleStatus(status);
+        });
+    }
+
+    private void layerCommand(String[] parts) {
+        String sub = parts.length > 1 ? parts[1].toLowerCase() : "";
+        String name = model.getLayerName(model.getActiveLayer());
+        switch (sub) {
+            case "" -> {
+                StringBuilder list = new StringBuilder("Layers, bottom to top:");
+                for (int l = 0; l < model.getLayerCount(); l++) {
+                    list.append(l == 0 ? " " : ", ").append(model.getLayerName(l));
+                    if (l == model.getActiveLayer())
+                        list.append('*');
+                    if (model.getLayerBlend(l) != BlendMode.NORMAL)
+                        list.append(' ').append(model.getLayerBlend(l).name().toLowerCase());
+                    if (model.getLayerOpacity(l) != 255)
+                        list.append(' ').append(Math.round(model.getLayerOpacity(l) * 100 / 255f)).append('%');
+                    if (!model.isLayerVisible(l))
+                        list.append(" (hidden)");
+                }
+                view.setConsoleStatus(list.toString());
+            }
+            case "add" -> {
+                addLayer();
+                view.setConsoleStatus("Added " + model.getLayerName(model.getActiveLayer()) + " (" + model.getLayerCount() + " layers)");
+            }
+            case "remove" -> view.setConsoleStatus(removeActiveLayer() ? "Removed " + name
+                    : failure("Remove failed: " + name + " is the only layer"));
+            case "merge" -> mergeActiveLayerDown();
+            case "opacity" -> {
+                int percent = parts.length == 3 ? Integer.parseInt(parts[2]) : -1;
+                if (percent < 0 || percent > 100) {
+                    view.setConsoleStatus(failure("Usage: layer opacity <0-100>"));
+                    return;
+                }
+                model.setLayerOpacity(model.getActiveLayer(), Math.round(percent * 255 / 100f));
+                repaintCanvas();
+                view.setConsoleStatus(name + " opacity " + percent + "%");
+            }
+            case "blend" -> {
+                BlendMode mode = null;
+                for (BlendMode m : BlendMode.values()) {
+                    if (parts.length == 3 && m.name().equalsIgnoreCase(parts[2]))
+                        mode = m;
+                }
+                if (mode == null) {
+                    view.setConsoleStatus(failure("Usage: layer blend normal|multiply|screen|add|overlay"));
+                    return;
+                }
+                model.setLayerBlend(model.getActiveLayer(), mode);
+                repaintCanvas();
+                view.setConsoleStatus(name + " blends " + mode.name().toLowerCase());
+            }
+            default -> {
+                int index = parts.length == 2 && parts[1].matches("\\d{1,4}") ? Integer.parseInt(parts[1]) - 1 : -1;
+                if (index < 0 || index >= model.getLayerCount()) {
+                    view.setConsoleStatus(failure("Usage: layer [add | remove | merge | opacity <0-100> | blend <mode> | <1-"
+                            + model.getLayerCount() + ">]"));
+                    return;
+                }
+                setActiveLayer(index);
+                view.setConsoleStatus("Active layer " + model.getLayerName(index));
+            }
+        }
+    }
+
+    /**
+     * Leading --all-layers / --all-frames flags of a filter command, and the arguments
+     * after them; PixelArtBatch reads its dither scope the same way.
+     */
+    record Scope(boolean allLayers, boolean allFrames, String args) {
+        static final String FLAGS = "[--all-layers] [--all-frames]";
+
+        static Scope parse(String args) {
+            boolean layers = false;
+            boolean frames = false;
+            String rest = args.trim();
+            while (rest.startsWith("--")) {
+                String flag = rest.split("\\s+", 2)[0];
+                switch (flag) {
+                    case "--all-layers" -> layers = true;
+                    case "--all-frames" -> frames = true;
+                    default -> throw new IllegalArgumentException("unknown option " + flag);
+                }
+                rest = rest.substring(flag.length()).trim();
+            }
+            return new Scope(layers, frames, rest);
+        }
+
+        String describe() {
+            return (allLayers ? "all layers" : "active layer") + (allFrames ? ", all frames" : "");
+        }
+    }
+
+    private interface FrameOp {
+        /** Edits one frame's pixels in place; frame is its index in the layer's timeline. */
+        void apply(Color[][] layer, int frame);
+    }
+
+    /**
+     * Runs op over the shown frame, or every frame, of the active layer or all
+     * layers, spreading the frames over the common fork/join pool. The edited
+     * timelines replace the originals as one undo step, unless a layer in scope
+     * changed while the task ran.
+     */
+    private void startFramesTask(String name, Scope scope, FrameOp op, String done) {
+        model.saveCurrentFrames();
+        java.util.List<PixelArtModel.FrameData>[] before = model.snapshotFrames();
+        int[] frameIndex = model.getCurrentFrameIndex().clone();
+        int active = model.getActiveLayer();
+        java.util.List<int[]> jobs = new java.util.ArrayList<>(); // {layer, frame}
+        for (int l = 0; l < before.length; l++) {
+            if (!scope.allLayers() && l != active)
+                continue;
+            if (scope.allFrames()) {
+                for (int f = 0; f < before[l].size(); f++) {
+                    jobs.add(new int[] { l, f });
+                }
+            } else if (!before[l].isEmpty()) {
+                jobs.add(new int[] { l, Math.min(frameIndex[l], before[l].size() - 1) });
+            }
         }
+        startTask(name, t -> {
+            PixelArtModel.FrameData[][] edited = new PixelArtModel.FrameData[before.length][];
+            for (int l = 0; l < before.length; l++) {
+                edited[l] = before[l].toArray(new PixelArtModel.FrameData[0]);
+            }
+            AtomicInteger finished = new AtomicInteger();
+            jobs.parallelStream().forEach(job -> {
+                t.checkCancelled();
+                Color[][] src = edited[job[0]][job[1]].getLayer();
+                Color[][] copy = new Color[src.length][];
+                for (int r = 0; r < src.length; r++) {
+                    copy[r] = java.util.Arrays.copyOf(src[r], src[r].length);
+                }
+                op.apply(copy, job[1]);
+                if (!PixelArtModel.sameContent(src, copy)) {
+                    edited[job[0]][job[1]] = new PixelArtModel.FrameData(copy);
+                }
+                t.progress(finished.incrementAndGet(), jobs.size());
+            });
+            return edited;
+        }, edited -> {
+            if (!model.unchangedSince(before, frameIndex, scope.allLayers() ? -1 : active)) {
+                return failure(name + " discarded: the frames changed while it ran");
+            }
+            recordUndoSnapshot(true);
+            // layers out of scope keep whatever they hold now
+            java.util.List<PixelArtModel.FrameData>[] timelines = model.snapshotFrames();
+            for (int l = 0; l < timelines.length; l++) {
+                if (scope.allLayers() || l == active) {
+                    timelines[l] = new java.util.ArrayList<>(java.util.Arrays.asList(edited[l]));
+                }
+            }
+            model.restoreFrames(timelines, model.getCurrentFrameIndex().clone());
+            repaintCanvas();
+            repaintTimeline();
+            return done;
+        });
+    }
+
+    private void startResample(int factor) {
+        model.saveCurrentFrames();
+        java.util.List<PixelArtModel.FrameData>[] before = model.snapshotFrames();
+        int[] frameIndex = model.getCurrentFrameIndex().clone();
+        int cols = model.getColumns();
+        int rows = model.getRows();
+        int total = 0;
+        for (java.util.List<PixelArtModel.FrameData> frames : before) {
+            total += frames.size();
+        }
+        int frameCount = total;
+        startTask("Resampling", t -> {
+            AtomicInteger done = new AtomicInteger();
+            return PixelArtModel.resampleFrames(before, cols, rows, factor, () -> {
+                t.checkCancelled();
+                t.progress(done.incrementAndGet(), frameCount);
+            });
+        }, scaled -> {
+            if (!model.unchangedSince(before, frameIndex, -1) || model.getColumns() != cols || model.getRows() != rows) {
+                return failure("Resample discarded: the project changed while it ran");
+            }
+            recordUndoSnapshot(UndoDepth.PROJECT);
+            model.applyResampled(scaled, factor);
+            refreshAfterResample();
+            return "Resampled x" + factor;
+        });
+    }
+
+    /** Cancels the background command and any sequence export; false if neither was running. */
+    private boolean cancelBackgroundWork() {
+        boolean cancelled = false;
+        if (task != null && !task.isCancelled()) {
+            task.cancel();
+            view.setConsoleStatus("Cancelling " + task.getName().toLowerCase() + "...");
+            cancelled = true;
+        }
+        if (sequenceExport != null && !sequenceExport.isCancelled()) {
+            sequenceExport.cancel();
+            view.setConsoleStatus("Cancelling export...");
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Runs the export off the EDT; progress and the result come back through
+     * invokeLater. Inside a script it runs in place instead, like startTask, so
+     * later lines cannot edit the frames it reads and a failure stops the script.
+     */
+    private void startSequenceExport(SequenceExport job) {
+        if (scriptRunning) {
+            try {
+                view.setConsoleStatus(sequenceStatus(job, job.run((done, count) -> { })));
+            } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+                view.setConsoleStatus(failure(sequenceFailure(ex)));
+            }
+            return;
+        }
+        sequenceExport = job;
+        java.util.Set<ProjectArchive> held = ProjectArchive.retainAll(model.getLayerFrames());
+        int total = job.getFrameCount();
+        view.setConsoleStatus("Exporting 0/" + total + "...");
+        AtomicInteger shownPercent = new AtomicInteger(-1);
+        SequenceExport.Listener progress = (done, count) -> {
+            int pct = done * 100 / count;
+            if (pct > shownPercent.getAndAccumulate(pct, Math::max)) {
+                SwingUtilities.invokeLater(() -> {
+                    if (sequenceExport == job && !job.isCancelled()) {
+                        view.setConsoleStatus("Exporting " + done + "/" + count + " (" + pct + "%)");
+                    }
+                });
+            }
+        };
+        Thread worker = new Thread(() -> {
+            String status;
+            try {
+                status = sequenceStatus(job, job.run(progress));
+            } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+                status = sequenceFailure(ex);
+            }
+            String message = status;
+            SwingUtilities.invokeLater(() -> {
+                ProjectArchive.releaseAll(held);
+                sequenceExport = null;
+                view.setConsoleStatus(message);
+            });
+        }, "sequence-export");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private static String sequenceStatus(SequenceExport job, int written) {
+        return job.isCancelled()
+                ? "Export cancelled after " + written + "/" + job.getFrameCount() + " frames"
+                : "Saved " + written + " frames to " + job.getDirectory().getPath()
+                        + " (" + job.getSkippedCount() + " unchanged)";
+    }
+
+    private static String sequenceFailure(Throwable ex) {
+        return "Save-seq failed: " + (ex.getMessage() != null ? ex.getMessage() : ex.toString());
+    }
+
+    // Performance overlay; a timer keeps its numbers fresh while nothing else repaints
+    private void setHudVisible(boolean show) {
+        if (show == (hud != null)) {
+            return;
+        }
+        if (show) {
+            hud = new PerfHud(model::getFrameRate, model::isPlaying, this::undoBytes,
+                    () -> undoStack.size() + redoStack.size());
+            hudTimer = new Timer(PerfHud.SAMPLE_MILLIS, e -> canvas.repaint(hud.bounds(canvas.getVisibleRect())));
+            hudTimer.start();
+        } else {
+            hudTimer.stop();
+            hudTimer = null;
+            hud = null;
+        }
+        canvas.setHud(hud);
+    }
+
+    // Snapshots share their Color objects, so the reference arrays are what they cost
+    private long undoBytes() {
+        long perSnapshot = model.getLayerCount() * MemoryMonitor.gridBytes(model.getRows(), model.getColumns());
+        return perSnapshot * (undoStack.size() + redoStack.size());
+    }
+
+    /**
+     * Frees what can be rebuilt or lived without: decoded archive frames, the
+     * redo history and all but the newest few undo steps. MemoryMonitor calls
+     * this on the EDT when a GC leaves the heap nearly full.
+     */
+    void trimMemory(boolean lowMemory) {
+        int frames = 0;
+        for (ProjectArchive archive : MemoryMonitor.archives(model)) {
+            frames += archive.trimCache();
+        }
+        int steps = redoStack.size();
+        redoStack.clear();
+        while (undoStack.size() > UNDO_KEEP_ON_TRIM) {
+            undoStack.removeLast();
+            steps++;
+        }
+        // the JVM may notify again before the heap recovers; only report a trim that freed something
+        if (lowMemory && steps == 0 && frames == 0)
+            return;
+        view.setConsoleStatus((lowMemory ? "Low memory: dropped " : "Dropped ") + steps + " undo/redo steps and "
+                + frames + " cached frames");
+    }
+
+    // Input recording for replay with PixelArtReplay
+    private void startRecording(String path) {
+        if (recorder != null) {
+            view.setConsoleStatus("Already recording to " + recorder.getFile());
+            return;
+        }
+        try {
+            recorder = new InputTrace.Recorder(new File(path), model.getColumns(), model.getRows(),
+                    canvas.getCellSize(), this::traceState);
+            recorder.attach(canvas);
+            view.setConsoleStatus("Recording input to " + path);
+        } catch (IOException ex) {
+            view.setConsoleStatus(failure("Record failed: " + ex.getMessage()));
+        }
+    }
+
+    private void stopRecording() {
+        if (recorder == null) {
+            view.setConsoleStatus("Not recording");
+            return;
+        }
+        InputTrace.Recorder done = recorder;
+        recorder = null;
+        try {
+            done.stop();
+            view.setConsoleStatus("Recorded " + done.getEventCount() + " events to " + done.getFile());
+        } catch (IOException ex) {
+            view.setConsoleStatus(failure("Record failed: " + ex.getMessage()));
+        }
+    }
+
+    // tool, ARGB colour, brush size, active layer, cell size
+    private String traceState() {
+        return model.getToolMode() + " " + String.format("%08x", model.getCurrentBrushColor().getRGB()) + " "
+                + model.getBrushSize() + " " + model.getActiveLayer() + " " + canvas.getCellSize();
+    }
+
+    // Autosave and recovery
+    public boolean hasRecovery() {
+        return autosave.hasRecovery();
+    }
+
+    /** Loads the recovery file left by a previous session; returns false if it could not be read. */
+    public boolean recover() {
+        try {
+            loadProject(autosave.getRecoveryFile().toString());
+            view.setConsoleStatus("Recovered unsaved work");
+            return true;
+        } catch (IOException | ClassNotFoundException ex) {
+            view.setConsoleStatus(failure("Recovery failed: " + ex.getMessage()));
+            return false;
+        }
+    }
+
+    public void discardRecovery() {
+        autosave.discard();
+    }
+
+    public void startAutosave() {
+        autosave.markSaved();
+        autosave.setInterval(AutosaveService.configuredIntervalSeconds());
+    }
+
+    public void exit() {
+        autosave.discard();
+        System.exit(0);
     }
 
     // Canvas operations
@@ -386,7 +1159,7 @@ public class PixelArtController {
         buildCanvas();
         view.setCanvasCellSize(model.getCanvasCellSize());
         view.recenterViewport();
-        view.repaintControls();
+        repaintControls();
     }
 
     public void refreshViewFromModel() {
@@ -404,6 +1177,14 @@ public class PixelArtController {
         repaintTimeline();
     }
 
+    public void loadSheet(String path, int cellW, int cellH) throws IOException {
+        fileHandler.loadSheet(path, cellW, cellH, this);
+    }
+
+    public void loadGif(String path) throws IOException {
+        fileHandler.loadGif(path, this);
+    }
+
     public void saveImage(String path) throws IOException {
         fileHandler.saveImage(path);
     }
@@ -416,12 +1197,23 @@ public class PixelArtController {
         fileHandler.saveGif(path, model.getFrameRate());
     }
 
+    public void saveSheet(String path) throws IOException {
+        fileHandler.saveSheet(path, model.getFrameRate());
+    }
+
     public void saveProject(String path) throws IOException {
         fileHandler.saveProject(path);
+        releaseUnusedArchives();
+        autosave.markSaved();
     }
 
     public void loadProject(String path) throws IOException, ClassNotFoundException {
-        fileHandler.loadProject(path, this);
+        fileHandler.loadProject(path);
+        clearUndoStacks();
+        releaseUnusedArchives();
+        autosave.markSaved();
+        refreshViewFromModel();
+        applyAllCurrentFrames();
     }
 
     // Tool operations
@@ -431,7 +1223,7 @@ public class PixelArtController {
         PixelOps.flipHorizontal(layer);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void flipVertical() {
@@ -440,7 +1232,7 @@ public class PixelArtController {
         PixelOps.flipVertical(layer);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void blurGaussian(int radius) {
@@ -449,7 +1241,7 @@ public class PixelArtController {
         PixelOps.blurGaussian(layer, radius);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void blurMotion(double angle, int amount) {
@@ -458,7 +1250,7 @@ public class PixelArtController {
         PixelOps.blurMotion(layer, angle, amount);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void ditherFloydSteinberg() {
@@ -467,7 +1259,7 @@ public class PixelArtController {
         PixelOps.ditherFloydSteinberg(layer, PixelConstants.CANVAS_BG);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void ditherOrdered() {
@@ -476,46 +1268,30 @@ public class PixelArtController {
         PixelOps.ditherOrdered(layer, PixelConstants.CANVAS_BG);
         model.setLayer(model.getActiveLayer(), layer);
         model.saveCurrentFrames();
-        view.repaintCanvas();
+        repaintCanvas();
     }
 
     public void resampleCanvas(int factor) {
         if (factor <= 1) return;
-        recordUndoSnapshot();
-        model.saveCurrentFrames();
-        int oldRows = model.getRows();
-        int oldCols = model.getColumns();
-        int newRows = oldRows * factor;
-        int newCols = oldCols * factor;
-        Color[][][] scaledLayers = new Color[model.getLayerCount()][newRows][newCols];
-        for (int l = 0; l < model.getLayerCount(); l++) {
-            Color[][] src = model.getLayers()[l];
-            Color[][] dest = new Color[newRows][newCols];
-            for (int r = 0; r < newRows; r++) {
-                int sr = Math.min(oldRows - 1, r / factor);
-                for (int c = 0; c < newCols; c++) {
-                    int sc = Math.min(oldCols - 1, c / factor);
-                    dest[r][c] = src[sr][sc];
-                }
-            }
-            scaledLayers[l] = dest;
-        }
-        model.setDimensions(newCols, newRows);
+        recordUndoSnapshot(UndoDepth.PROJECT);
+        model.resample(factor);
+        refreshAfterResample();
+    }
+
+    private void refreshAfterResample() {
         model.setCanvasCellSize(Math.min(model.getCanvasCellSize(), PixelConstants.MAX_CELL_SIZE));
-        model.setLayers(scaledLayers);
-        model.saveCurrentFrames();
         buildCanvas();
         view.setCanvasCellSize(model.getCanvasCellSize());
         view.recenterViewport();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
     public void applyAllCurrentFrames() {
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -529,7 +1305,7 @@ public class PixelArtController {
     public void setBrushSize(int size) {
         model.setBrushSize(size);
         applyBrushSizeToCanvases(model.getBrushSize());
-        view.repaintCanvas();
+        repaintCanvas();
         if (controlBar != null) {
             controlBar.syncSliders();
         }
@@ -594,8 +1370,8 @@ public class PixelArtController {
         if (controlBar != null) {
             controlBar.syncSliders();
         }
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
     }
 
     private void normalizeColorState() {
@@ -607,7 +1383,7 @@ public class PixelArtController {
         if (controlBar != null) {
             controlBar.syncSliders();
         }
-        view.repaintControls();
+        repaintControls();
     }
 
     // Layers
@@ -619,8 +1395,8 @@ public class PixelArtController {
         clearUndoStacks();
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -630,8 +1406,8 @@ public class PixelArtController {
 
     public void toggleLayerVisibility(int layer) {
         model.toggleLayerVisibility(layer);
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
     }
 
     public void swapLayerUp(int idx) {
@@ -643,14 +1419,76 @@ public class PixelArtController {
             model.setActiveLayer(idx - 1);
         else if (model.getActiveLayer() == idx - 1)
             model.setActiveLayer(idx);
-        view.repaintControls();
-        view.repaintCanvas();
+        repaintControls();
+        repaintCanvas();
     }
 
     public String getLayerName(int idx) {
         return model.getLayerName(idx);
     }
 
+    /** Adds an empty layer above the active one and selects it. */
+    public void addLayer() {
+        recordUndoSnapshot(UndoDepth.PROJECT);
+        model.addLayer(model.getActiveLayer() + 1);
+        layersRestructured();
+    }
+
+    /** Removes the active layer; false when it is the only one. */
+    public boolean removeActiveLayer() {
+        if (model.getLayerCount() <= 1)
+            return false;
+        recordUndoSnapshot(UndoDepth.PROJECT);
+        model.removeLayer(model.getActiveLayer());
+        layersRestructured();
+        return true;
+    }
+
+    /**
+     * Merges the active layer into the one below it and reports the result; false
+     * when there is none, the layer is hidden or the merged timeline would be too long.
+     */
+    public boolean mergeActiveLayerDown() {
+        int active = model.getActiveLayer();
+        String name = model.getLayerName(active);
+        if (active == 0) {
+            view.setConsoleStatus(failure("Merge failed: " + name + " has no layer below it"));
+            return false;
+        }
+        if (!model.isLayerVisible(active)) {
+            view.setConsoleStatus(failure("Merge failed: " + name + " is hidden"));
+            return false;
+        }
+        String below = model.getLayerName(active - 1);
+        int top = model.getLayerFrames()[active].size();
+        int bottom = model.getLayerFrames()[active - 1].size();
+        int count = model.mergedFrameCount(active);
+        int limit = model.mergeFrameLimit(active);
+        if (count > limit) {
+            view.setConsoleStatus(failure("Merge failed: " + name + " and " + below + " have " + top + " and " + bottom
+                    + " frames, which loop to " + count
+                    + " (their least common multiple), over the " + limit + "-frame limit at " + model.getColumns()
+                    + "x" + model.getRows() + "; make one frame count divide the other"));
+            return false;
+        }
+        recordUndoSnapshot(UndoDepth.PROJECT);
+        model.mergeLayerDown(active);
+        layersRestructured();
+        view.setConsoleStatus("Merged " + name + " into " + below + (count > Math.max(top, bottom)
+                ? " (" + top + " and " + bottom + " frames loop to their least common multiple, " + count + ")" : ""));
+        return true;
+    }
+
+    // The layer arrays were replaced and the canvas still holds the old ones. Older undo steps only
+    // line up with the layers again once the project step recorded before the change has been undone.
+    private void layersRestructured() {
+        buildCanvas();
+        model.applyAllCurrentFrames();
+        repaintCanvas();
+        repaintControls();
+        repaintTimeline();
+    }
+
     public void setLayerName(int idx, String name) {
         model.setLayerName(idx, name);
     }
@@ -676,28 +1514,38 @@ public class PixelArtController {
         } else {
             stopPlayback();
         }
-        view.repaintControls();
+        repaintControls();
         repaintTimeline();
     }
 
     public void stepFrame(int delta) {
+        int layer = model.getActiveLayer();
+        long start = System.nanoTime();
+        EditorEvents.FrameSwitch event = EditorEvents.frameSwitch(EditorEvents.Switch.STEP, layer,
+                model.getCurrentFrameIndex()[layer]);
         model.saveCurrentFrames();
         model.stepFrame(delta);
         clearUndoStacks();
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        EditorEvents.finish(EditorEvents.Switch.STEP, event, start, model.getCurrentFrameIndex()[layer]);
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
     public void selectFrame(int index) {
+        int layer = model.getActiveLayer();
+        long start = System.nanoTime();
+        EditorEvents.FrameSwitch event = EditorEvents.frameSwitch(EditorEvents.Switch.SELECT, layer,
+                model.getCurrentFrameIndex()[layer]);
         model.saveCurrentFrames();
         model.selectFrame(index);
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         clearUndoStacks();
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        EditorEvents.finish(EditorEvents.Switch.SELECT, event, start, model.getCurrentFrameIndex()[layer]);
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -707,8 +1555,8 @@ public class PixelArtController {
         clearUndoStacks();
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -718,8 +1566,8 @@ public class PixelArtController {
         clearUndoStacks();
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -729,8 +1577,8 @@ public class PixelArtController {
         clearUndoStacks();
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -739,8 +1587,8 @@ public class PixelArtController {
         clearUndoStacks();
         syncOtherLayersToActive(model.getCurrentFrameIndex()[model.getActiveLayer()]);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -753,7 +1601,9 @@ public class PixelArtController {
     }
 
     private void repaintTimeline() {
-        if (animationPanel != null) {
+        if (scriptRunning) {
+            timelineDirty = true;
+        } else if (animationPanel != null) {
             animationPanel.repaint();
         }
     }
@@ -784,10 +1634,12 @@ public class PixelArtController {
         if (maxLen <= 0) {
             stopPlayback();
             model.setPlaying(false);
-            view.repaintControls();
+            repaintControls();
             repaintTimeline();
             return;
         }
+        long start = System.nanoTime();
+        EditorEvents.FrameSwitch event = EditorEvents.frameSwitch(EditorEvents.Switch.PLAYBACK, -1, playCursor);
         playCursor = (playCursor + 1) % maxLen;
         int[] idx = model.getCurrentFrameIndex().clone();
         boolean[] animated = model.getAnimatedLayers();
@@ -801,8 +1653,12 @@ public class PixelArtController {
         }
         model.setCurrentFrameIndex(idx);
         model.applyAllCurrentFrames();
-        view.repaintCanvas();
-        view.repaintControls();
+        EditorEvents.finish(EditorEvents.Switch.PLAYBACK, event, start, playCursor);
+        if (hud != null) {
+            hud.playbackFrame();
+        }
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -823,7 +1679,7 @@ public class PixelArtController {
 
     public void toggleOnion() {
         model.setOnionEnabled(!model.isOnionEnabled());
-        view.repaintCanvas();
+        repaintCanvas();
         repaintTimeline();
     }
 
@@ -855,30 +1711,88 @@ public class PixelArtController {
         int idx = Math.max(0, Math.min(model.getCurrentFrameIndex()[active], frames.size() - 1));
         int prevIdx = (idx - 1 + frames.size()) % frames.size();
         int nextIdx = (idx + 1) % frames.size();
-        Color[][] prev = frames.get(prevIdx).layer;
-        Color[][] next = frames.get(nextIdx).layer;
+        Color[][] prev = frames.get(prevIdx).getLayer();
+        Color[][] next = frames.get(nextIdx).getLayer();
         return new Color[][][] { prev, next };
     }
 
+    /** How much of the project an undo step puts back. */
+    private enum UndoDepth {
+        LAYERS, FRAMES, PROJECT
+    }
+
+    /**
+     * An undo step: the shown layers, plus every layer's timeline for steps
+     * that edit frames other than the shown ones, plus the canvas size and
+     * layer settings for steps that change those. Frames are immutable, so the
+     * timeline copy shares them and costs only its lists.
+     */
+    private record UndoState(Color[][][] layers, java.util.List<PixelArtModel.FrameData>[] frames, int[] frameIndex,
+            PixelArtModel.ProjectData project) {
+        UndoDepth depth() {
+            return project != null ? UndoDepth.PROJECT : frames != null ? UndoDepth.FRAMES : UndoDepth.LAYERS;
+        }
+
+        // the pixel grids this step holds, for memory accounting; archived frames hold none
+        java.util.List<Color[][]> grids() {
+            java.util.List<Color[][]> grids = new java.util.ArrayList<>(java.util.Arrays.asList(layers));
+            if (frames != null) {
+                for (java.util.List<PixelArtModel.FrameData> timeline : frames) {
+                    for (PixelArtModel.FrameData frame : timeline) {
+                        if (!frame.isArchived())
+                            grids.add(frame.getLayer());
+                    }
+                }
+            }
+            return grids;
+        }
+    }
+
+    private UndoState captureState(UndoDepth depth) {
+        model.saveCurrentFrames();
+        return switch (depth) {
+            case LAYERS -> new UndoState(cloneLayers(model.getLayers()), null, null, null);
+            case FRAMES -> new UndoState(cloneLayers(model.getLayers()), model.snapshotFrames(),
+                    model.getCurrentFrameIndex().clone(), null);
+            // the shown layers are in the frames just saved
+            case PROJECT -> new UndoState(new Color[0][][], model.snapshotFrames(), null, model.toProjectMetadata());
+        };
+    }
+
+    private void restoreState(UndoState state) {
+        if (state.project() != null) {
+            boolean resized = state.project().cols != model.getColumns() || state.project().rows != model.getRows();
+            model.restoreProject(state.project(), state.frames());
+            if (resized) {
+                refreshViewFromModel();
+            } else {
+                // e.g. a layer added or removed: keep the viewport where it is
+                layersRestructured();
+            }
+        } else if (state.frames() != null) {
+            model.restoreFrames(state.frames(), state.frameIndex());
+        } else {
+            copyInto(model.getLayers(), state.layers());
+        }
+    }
+
     public void performUndo() {
         if (undoStack.isEmpty())
             return;
-        pushRedoSnapshot();
-        Color[][][] prev = undoStack.pop();
-        copyInto(model.getLayers(), prev);
-        view.repaintCanvas();
-        view.repaintControls();
+        pushRedoSnapshot(undoStack.peek().depth());
+        restoreState(undoStack.pop());
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
     public void performRedo() {
         if (redoStack.isEmpty())
             return;
-        pushUndoSnapshot();
-        Color[][][] next = redoStack.pop();
-        copyInto(model.getLayers(), next);
-        view.repaintCanvas();
-        view.repaintControls();
+        pushUndoSnapshot(redoStack.peek().depth());
+        restoreState(redoStack.pop());
+        repaintCanvas();
+        repaintControls();
         repaintTimeline();
     }
 
@@ -888,7 +1802,8 @@ public class PixelArtController {
     }
 
     private int computeMaxCellSizeForScreen() {
-        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        // no screen to measure without a display, so size cells as for a common desktop
+        Dimension screen = GraphicsEnvironment.isHeadless() ? HEADLESS_SCREEN : Toolkit.getDefaultToolkit().getScreenSize();
         int usableWidth = Math.max(200, (int) screen.getWidth() - PixelConstants.CONTROL_BAR_WIDTH - 200);
         int usableHeight = Math.max(200, (int) screen.getHeight() - 200);
         int cols = Math.max(1, model.getColumns());
@@ -903,31 +1818,72 @@ public class PixelArtController {
     }
 
     private void recordUndoSnapshot() {
-        pushUndoSnapshot();
+        recordUndoSnapshot(false);
+    }
+
+    /** allFrames also keeps every layer's timeline, for steps that edit frames that are not shown. */
+    private void recordUndoSnapshot(boolean allFrames) {
+        recordUndoSnapshot(allFrames ? UndoDepth.FRAMES : UndoDepth.LAYERS);
+    }
+
+    private void recordUndoSnapshot(UndoDepth depth) {
+        // a script is one undo step, taken before its first line
+        if (scriptRunning)
+            return;
+        pushUndoSnapshot(depth);
         redoStack.clear();
     }
 
-    private void pushUndoSnapshot() {
-        model.saveCurrentFrames();
-        undoStack.push(cloneLayers(model.getLayers()));
+    private void pushUndoSnapshot(UndoDepth depth) {
+        EditorEvents.UndoSnapshot event = new EditorEvents.UndoSnapshot();
+        event.begin();
+        long start = System.nanoTime();
+        undoStack.push(captureState(depth));
+        UNDO_SNAPSHOT_TIME.since(start);
+        if (event.shouldCommit()) {
+            event.layers = model.getLayerCount();
+            event.bytes = model.getLayerCount() * MemoryMonitor.gridBytes(model.getRows(), model.getColumns());
+            event.commit();
+        }
         while (undoStack.size() > UNDO_LIMIT) {
             undoStack.removeLast();
         }
     }
 
-    private void pushRedoSnapshot() {
-        model.saveCurrentFrames();
-        redoStack.push(cloneLayers(model.getLayers()));
+    private void pushRedoSnapshot(UndoDepth depth) {
+        redoStack.push(captureState(depth));
         while (redoStack.size() > UNDO_LIMIT) {
             redoStack.removeLast();
         }
     }
 
     private void clearUndoStacks() {
+        // a running script's one undo step restores the whole project, whatever its lines change
+        if (scriptRunning)
+            return;
         undoStack.clear();
         redoStack.clear();
     }
 
+    // After a project load or save: releases archives that neither the model nor the undo history still reads,
+    // e.g. the one a save to the same file superseded; background jobs reading one hold it open until they end
+    private void releaseUnusedArchives() {
+        java.util.Set<ProjectArchive> inUse = MemoryMonitor.archives(model);
+        for (java.util.Deque<UndoState> stack : java.util.List.of(undoStack, redoStack)) {
+            for (UndoState state : stack) {
+                if (state.frames() == null)
+                    continue;
+                for (java.util.List<PixelArtModel.FrameData> timeline : state.frames()) {
+                    for (PixelArtModel.FrameData frame : timeline) {
+                        if (frame.isArchived())
+                            inUse.add(frame.getSource());
+                    }
+                }
+            }
+        }
+        fileHandler.releaseArchives(inUse);
+    }
+
     private Color[][][] cloneLayers(Color[][][] src) {
         Color[][][] copy = new Color[src.length][][];
         for (int l = 0; l < src.length; l++) {
@@ -3,22 +3,29 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntConsumer;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageTypeSpecifier;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageOutputStream;
 
 public class PixelArtFileHandler {
+    private static final int MAX_GIF_DELAY = 0xFFFF;
+    // composites kept from the GIF hashing pass so the encoding pass need not render them again
+    private static final long GIF_KEEP_BYTES = 64L * 1024 * 1024;
     private PixelArtModel model;
+    // archives the model's frames or undo history may still read from
+    private final List<ProjectArchive> archives = new ArrayList<>();
 
     public PixelArtFileHandler(PixelArtModel model) {
         this.model = model;
@@ -28,45 +35,41 @@ public class PixelArtFileHandler {
         BufferedImage img = ImageIO.read(new File(path));
         if (img == null)
             throw new IOException("Unsupported image");
-        int w = img.getWidth();
-        int h = img.getHeight();
-        if (w != h) {
-            throw new IOException("Image must be square");
-        }
-        controller.rebuildCanvas(w, h);
-        Color[][][] layers = model.getLayers();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int argb = img.getRGB(x, y);
-                Color c = new Color(argb, true);
-                layers[0][y][x] = c;
-            }
-        }
+        controller.rebuildCanvas(img.getWidth(), img.getHeight());
+        PixelOps.readArgb(PixelOps.argbPixels(img), model.getLayers()[0]);
         // persist into frame data so applyAllCurrentFrames won't wipe the pixels
         model.saveCurrentFrames();
         controller.applyAllCurrentFrames();
     }
 
-    public void saveImage(String path) throws IOException {
-        BufferedImage img = new BufferedImage(model.getColumns(), model.getRows(), BufferedImage.TYPE_INT_ARGB);
-        for (int r = 0; r < model.getRows(); r++) {
-            for (int c = 0; c < model.getColumns(); c++) {
-                Color color = null;
-                for (int l = model.getLayerCount() - 1; l >= 0; l--) {
-                    Color[][] layer = model.getLayers()[l];
-                    Color cc = layer[r][c];
-                    if (cc != null) {
-                        color = cc;
-                        break;
-                    }
-                }
-                if (color == null) {
-                    img.setRGB(c, r, 0x00000000);
-                } else {
-                    img.setRGB(c, r, color.getRGB());
-                }
-            }
+    /** Loads w x h cells of a sprite sheet as the active layer's frames; returns the frame count. */
+    public int loadSheet(String path, int cellW, int cellH, PixelArtController controller) throws IOException {
+        return importFrames(AnimationImport.readSheet(new File(path), cellW, cellH), controller, false);
+    }
+
+    /** Loads an animated GIF as the active layer's frames and adopts its frame rate; returns the frame count. */
+    public int loadGif(String path, PixelArtController controller) throws IOException {
+        return importFrames(AnimationImport.readGif(new File(path)), controller, true);
+    }
+
+    private int importFrames(AnimationImport anim, PixelArtController controller, boolean useTiming) {
+        if (anim.width != model.getColumns() || anim.height != model.getRows()) {
+            // same rule as load: the canvas takes the size of what is imported
+            controller.rebuildCanvas(anim.width, anim.height);
+        } else {
+            model.saveCurrentFrames();
         }
+        model.replaceActiveLayerFrames(anim.frames);
+        if (useTiming) {
+            model.setFrameRate(Math.max(1, (int) Math.round(100.0 / anim.delayCs)));
+        }
+        controller.applyAllCurrentFrames();
+        return anim.frames.size();
+    }
+
+    public void saveImage(String path) throws IOException {
+        EditorEvents.Export event = EditorEvents.export(EditorEvents.Output.PNG, path, model.getColumns(), model.getRows());
+        BufferedImage img = toImage(model.getLayers(), model.getBlending(), model.getColumns(), model.getRows());
         File file = new File(path);
         String format = "png";
         int dot = path.lastIndexOf('.');
@@ -74,16 +77,25 @@ public class PixelArtFileHandler {
             format = path.substring(dot + 1);
         }
         ImageIO.write(img, format, file);
+        event.frames = 1;
+        event.bytes = file.length();
+        EditorEvents.finish(event);
     }
 
     public void saveSequence(String basePath) throws IOException {
+        prepareSequence(basePath).run(null);
+    }
+
+    /**
+     * Snapshots the timeline and creates the output folder; the returned export
+     * can then run off the EDT while editing continues.
+     */
+    public SequenceExport prepareSequence(String basePath) throws IOException {
         model.saveCurrentFrames();
-        int layerCount = model.getLayerCount();
+        List<PixelArtModel.FrameData>[] frames = model.snapshotFrames();
         int maxFrames = 0;
-        for (List<PixelArtModel.FrameData> lf : model.getLayerFrames()) {
-            if (lf != null) {
-                maxFrames = Math.max(maxFrames, lf.size());
-            }
+        for (List<PixelArtModel.FrameData> lf : frames) {
+            maxFrames = Math.max(maxFrames, lf.size());
         }
         if (maxFrames <= 0) {
             throw new IOException("No frames to save");
@@ -104,173 +116,295 @@ public class PixelArtFileHandler {
         if (!outDir.exists() && !outDir.mkdirs()) {
             throw new IOException("Could not create directory " + outDir.getAbsolutePath());
         }
-        int digits = Math.max(3, String.valueOf(maxFrames).length());
-        for (int i = 0; i < maxFrames; i++) {
-            Color[][][] snapshot = new Color[layerCount][][];
-            for (int l = 0; l < layerCount; l++) {
-                List<PixelArtModel.FrameData> lf = model.getLayerFrames()[l];
-                if (lf.isEmpty())
-                    continue;
-                PixelArtModel.FrameData fd = lf.get(i % lf.size());
-                snapshot[l] = fd.layer;
-            }
-            BufferedImage img = toImage(snapshot);
-            String idx = String.format("%0" + digits + "d", i + 1);
-            String outName = new File(outDir, prefixFileName(dirName, idx, format)).getPath();
-            ImageIO.write(img, format, new File(outName));
+        int cols = model.getColumns();
+        int rows = model.getRows();
+        PixelOps.Blending blending = model.getBlending();
+        return new SequenceExport(maxFrames, i -> toImage(timelineStep(frames, i), blending, cols, rows), outDir, dirName,
+                format);
+    }
+
+    /** Writes the animation as a GIF and returns how many GIF frames it took. */
+    public int saveGif(String path, int frameRate) throws IOException {
+        try {
+            return prepareGif(path, frameRate).run(null);
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
         }
     }
 
-    public void saveGif(String path, int frameRate) throws IOException {
+    /**
+     * Snapshots the timeline for a GIF export that can then run off the EDT.
+     * A cancelled export deletes the partly written file.
+     */
+    public BackgroundTask.Work<Integer> prepareGif(String path, int frameRate) {
         model.saveCurrentFrames();
-        int layerCount = model.getLayerCount();
-        int lcm = 1;
-        for (List<PixelArtModel.FrameData> lf : model.getLayerFrames()) {
-            int len = lf.size();
-            if (len > 0) {
-                lcm = lcm(lcm, len);
+        List<PixelArtModel.FrameData>[] frames = model.snapshotFrames();
+        PixelOps.Blending blending = model.getBlending();
+        int cols = model.getColumns();
+        int rows = model.getRows();
+        return task -> {
+            EditorEvents.Export event = EditorEvents.export(EditorEvents.Output.GIF, path, cols, rows);
+            int steps = timelinePeriod(frames);
+            // different layer frames can still composite to the same picture, so hash the composites too
+            long[] hashes = new long[steps];
+            // each step that differs from the one before, within budget; the others repeat an earlier one
+            BufferedImage[] kept = new BufferedImage[steps];
+            long keptBytes = 0;
+            // alpha, blend modes and hidden layers all make colours no layer holds, so count the composites
+            Map<Integer, int[]> histogram = new HashMap<>();
+            for (int i = 0; i < steps; i++) {
+                BufferedImage composite = toImage(timelineStep(frames, i), blending, cols, rows);
+                hashes[i] = contentHash(composite);
+                if ((i == 0 || hashes[i] != hashes[i - 1]) && keptBytes < GIF_KEEP_BYTES) {
+                    kept[i] = composite;
+                    keptBytes += 4L * cols * rows;
+                }
+                GifEncoder.Palette.count(PixelOps.argbPixels(composite), histogram);
+                if (task != null) {
+                    task.checkCancelled();
+                    task.progress(i + 1, 2 * steps);
+                }
+            }
+            int period = sequencePeriod(hashes, steps);
+            // merge runs of identical consecutive frames into one frame with a longer delay
+            int delayCs = Math.max(1, (int) Math.round(100.0 / Math.max(1, frameRate)));
+            List<int[]> runs = new ArrayList<>(); // {first step, delay}
+            for (int i = 0; i < period; i++) {
+                int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                if (last != null && hashes[last[0]] == hashes[i] && last[1] + delayCs <= MAX_GIF_DELAY) {
+                    last[1] += delayCs;
+                } else {
+                    runs.add(new int[] { i, delayCs });
+                }
+            }
+            GifEncoder.Palette palette = GifEncoder.Palette.fromHistogram(histogram);
+            try (FrameStream stream = new FrameStream(runs.size(), k -> {
+                int first = runs.get(k)[0];
+                // a run split only by the delay limit repeats the step before it
+                int same = first;
+                while (same > 0 && kept[same] == null && hashes[same] == hashes[same - 1]) {
+                    same--;
+                }
+                return kept[same] != null ? kept[same] : toImage(timelineStep(frames, first), blending, cols, rows);
+            })) {
+                writeGif(stream, palette, runs, path, cols, rows, k -> {
+                    if (task != null) {
+                        task.checkCancelled();
+                        task.progress(steps + (k + 1) * steps / runs.size(), 2 * steps);
+                    }
+                });
+            } catch (CancellationException ex) {
+                Files.deleteIfExists(Paths.get(path));
+                throw ex;
+            }
+            event.frames = runs.size();
+            event.bytes = new File(path).length();
+            EditorEvents.finish(event);
+            return runs.size();
+        };
+    }
+
+    /**
+     * Writes every distinct composite of the timeline into a packed atlas plus a
+     * JSON frame map next to it, and returns how many sprites the atlas holds.
+     */
+    public int saveSheet(String path, int frameRate) throws IOException {
+        EditorEvents.Export event = EditorEvents.export(EditorEvents.Output.SHEET, path, model.getColumns(), model.getRows());
+        model.saveCurrentFrames();
+        List<PixelArtModel.FrameData>[] frames = model.snapshotFrames();
+        PixelOps.Blending blending = model.getBlending();
+        int period = timelinePeriod(frames);
+        int cols = model.getColumns();
+        int rows = model.getRows();
+        SpriteSheet sheet = new SpriteSheet(cols, rows);
+        try (FrameStream stream = new FrameStream(period, i -> toImage(timelineStep(frames, i), blending, cols, rows))) {
+            BufferedImage bi;
+            while ((bi = stream.next()) != null) {
+                sheet.addFrame(PixelOps.argbPixels(bi));
             }
         }
-        if (lcm <= 0) {
-            throw new IOException("No frames to save");
+        File image = new File(path);
+        String name = image.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        if (dot <= 0) {
+            image = new File(image.getParentFile(), base + ".png");
         }
-        int delayCs = Math.max(1, (int) Math.round(100.0 / Math.max(1, frameRate)));
-        List<BufferedImage> framesOut = new ArrayList<>();
-        for (int i = 0; i < lcm; i++) {
-            Color[][][] snapshot = new Color[layerCount][][];
-            for (int l = 0; l < layerCount; l++) {
-                List<PixelArtModel.FrameData> lf = model.getLayerFrames()[l];
-                if (lf.isEmpty())
-                    continue;
-                PixelArtModel.FrameData fd = lf.get(i % lf.size());
-                snapshot[l] = fd.layer;
+        File json = new File(image.getParentFile(), base + ".json");
+        int durationMs = Math.max(1, (int) Math.round(1000.0 / Math.max(1, frameRate)));
+        sheet.write(image, json, durationMs);
+        event.frames = sheet.getSpriteCount();
+        event.bytes = image.length();
+        EditorEvents.finish(event);
+        return sheet.getSpriteCount();
+    }
+
+    /**
+     * Number of steps after which the whole timeline repeats. A layer whose frames
+     * repeat (duplicates, or a static layer with several frames) only contributes
+     * its own period, so this is often far below lcm(frame counts).
+     */
+    private int timelinePeriod(List<PixelArtModel.FrameData>[] frames) throws IOException {
+        int period = 0;
+        for (List<PixelArtModel.FrameData> lf : frames) {
+            if (!lf.isEmpty()) {
+                period = period == 0 ? layerPeriod(lf) : lcm(period, layerPeriod(lf));
             }
-            framesOut.add(toImage(snapshot));
         }
-        writeGif(framesOut, delayCs, path);
+        if (period <= 0) {
+            throw new IOException("No frames to save");
+        }
+        return period;
     }
 
-    public void saveProject(String path) throws IOException {
-        model.saveCurrentFrames();
-        PixelArtModel.ProjectData data = model.toProjectData();
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(path))) {
-            oos.writeObject(data);
+    /** Smallest divisor of the frame count after which the layer's frames repeat by content. */
+    private static int layerPeriod(List<PixelArtModel.FrameData> frames) {
+        int n = frames.size();
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = layerHash(frames.get(i).getLayer());
         }
+        return sequencePeriod(hashes, n);
     }
 
-    public void loadProject(String path, PixelArtController controller) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path))) {
-            PixelArtModel.ProjectData data = (PixelArtModel.ProjectData) ois.readObject();
-            model.fromProjectData(data);
-            controller.refreshViewFromModel();
-            controller.applyAllCurrentFrames();
+    private static int sequencePeriod(long[] hashes, int n) {
+        for (int p = 1; p < n; p++) {
+            if (n % p != 0)
+                continue;
+            boolean repeats = true;
+            for (int i = p; i < n && repeats; i++) {
+                repeats = hashes[i] == hashes[i - p];
+            }
+            if (repeats)
+                return p;
         }
+        return n;
     }
 
-    private BufferedImage toImage(Color[][][] layerData) {
-        int rows = model.getRows();
-        int cols = model.getColumns();
-        BufferedImage img = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_ARGB);
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                Color color = null;
-                for (int l = layerData.length - 1; l >= 0; l--) {
-                    if (layerData[l] == null)
-                        continue;
-                    Color cc = layerData[l][r][c];
-                    if (cc != null) {
-                        color = cc;
-                        break;
-                    }
-                }
-                if (color == null) {
-                    img.setRGB(c, r, 0x00000000);
-                } else {
-                    img.setRGB(c, r, color.getRGB());
-                }
+    private static long layerHash(Color[][] layer) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (Color[] row : layer) {
+            for (Color c : row) {
+                hash = mixHash(hash, c == null ? 0 : c.getRGB());
             }
         }
-        return img;
+        return hash;
     }
 
-    private void writeGif(List<BufferedImage> framesOut, int delayCs, String path) throws IOException {
-        ImageWriter writer = ImageIO.getImageWritersBySuffix("gif").hasNext()
-                ? ImageIO.getImageWritersBySuffix("gif").next()
-                : null;
-        if (writer == null)
-            throw new IOException("No GIF writer available");
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(new File(path))) {
-            writer.setOutput(ios);
-            writer.prepareWriteSequence(null);
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            for (int i = 0; i < framesOut.size(); i++) {
-                BufferedImage bi = framesOut.get(i);
-                ImageTypeSpecifier type = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB);
-                IIOMetadata metadata = writer.getDefaultImageMetadata(type, param);
-                String metaFormat = metadata.getNativeMetadataFormatName();
-                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metaFormat);
-                IIOMetadataNode gce = getNode(root, "GraphicControlExtension");
-                gce.setAttribute("disposalMethod", "restoreToBackgroundColor");
-                gce.setAttribute("userInputFlag", "FALSE");
-                gce.setAttribute("transparentColorFlag", "FALSE");
-                gce.setAttribute("delayTime", Integer.toString(delayCs));
-                gce.setAttribute("transparentColorIndex", "0");
+    /** 64-bit hash of an image's ARGB pixels, used to spot repeated frames between and within exports. */
+    static long contentHash(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] argb = PixelOps.argbPixels(img);
+        long hash = 0x9E3779B97F4A7C15L ^ ((long) w << 32 | h);
+        for (int v : argb) {
+            hash = mixHash(hash, v);
+        }
+        return hash ^ (hash >>> 32);
+    }
 
-                if (i == 0) {
-                    IIOMetadataNode aes = getNode(root, "ApplicationExtensions");
-                    IIOMetadataNode ae = new IIOMetadataNode("ApplicationExtension");
-                    ae.setAttribute("applicationID", "NETSCAPE");
-                    ae.setAttribute("authenticationCode", "2.0");
-                    byte[] loop = new byte[] { 1, 0, 0 };
-                    ae.setUserObject(loop);
-                    aes.appendChild(ae);
-                }
+    private static long mixHash(long hash, int v) {
+        return Long.rotateLeft(hash ^ (v * 0xC2B2AE3D27D4EB4FL), 29) * 0x9E3779B97F4A7C15L;
+    }
 
-                metadata.setFromTree(metaFormat, root);
-                writer.writeToSequence(new javax.imageio.IIOImage(bi, null, metadata), param);
-            }
-            writer.endWriteSequence();
-        } finally {
-            writer.dispose();
+    private Color[][][] timelineStep(List<PixelArtModel.FrameData>[] frames, int step) {
+        Color[][][] snapshot = new Color[frames.length][][];
+        for (int l = 0; l < frames.length; l++) {
+            List<PixelArtModel.FrameData> lf = frames[l];
+            if (lf.isEmpty())
+                continue;
+            snapshot[l] = lf.get(step % lf.size()).getLayer();
         }
+        return snapshot;
     }
 
-    private IIOMetadataNode getNode(IIOMetadataNode rootNode, String nodeName) {
-        for (int i = 0; i < rootNode.getLength(); i++) {
-            if (rootNode.item(i).getNodeName().equalsIgnoreCase(nodeName)) {
-                return (IIOMetadataNode) rootNode.item(i);
-            }
-        }
-        IIOMetadataNode node = new IIOMetadataNode(nodeName);
-        rootNode.appendChild(node);
-        return node;
+    /**
+     * Saves the project and returns how many frame chunks had to be written. The
+     * archive the frames came from stays open; the caller releases it once nothing
+     * reads it any more.
+     */
+    public int saveProject(String path) throws IOException {
+        EditorEvents.Export event = EditorEvents.export(EditorEvents.Output.PROJECT, path, model.getColumns(), model.getRows());
+        model.saveCurrentFrames();
+        ProjectArchive saved = ProjectArchive.save(Paths.get(path), model.toProjectMetadata(), model.getLayerFrames());
+        // frames now live in the file, so the next save only writes what changes after this
+        model.adoptFrames(saved.getFrames());
+        archives.add(saved);
+        event.frames = saved.getWrittenFrames();
+        event.bytes = new File(path).length();
+        EditorEvents.finish(event);
+        return saved.getWrittenFrames();
     }
 
-    private String prefixFileName(String base, String idx, String format) {
-        return base + idx + "." + format;
+    /**
+     * Replaces the model with a saved project; the caller refreshes any view and
+     * then releases the archives the old project read from.
+     */
+    public void loadProject(String path) throws IOException, ClassNotFoundException {
+        readProject(path).run();
     }
 
-    private Color[][] cloneLayer(Color[][] src) {
-        if (src == null)
-            return null;
-        Color[][] copy = new Color[src.length][];
-        for (int r = 0; r < src.length; r++) {
-            copy[r] = Arrays.copyOf(src[r], src[r].length);
+    /**
+     * Reads a project without touching the model, so it can run off the EDT;
+     * the returned step installs it into the model and must run on the EDT.
+     */
+    public Runnable readProject(String path) throws IOException, ClassNotFoundException {
+        Path file = Paths.get(path);
+        if (ProjectArchive.isArchive(file)) {
+            // frames stay in the file and decode when first displayed or exported
+            ProjectArchive archive = ProjectArchive.open(file);
+            return () -> {
+                archives.add(archive);
+                model.fromProjectData(archive.getMetadata(), archive.getFrames());
+            };
+        }
+        // legacy serialized ProjectData
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path))) {
+            PixelArtModel.ProjectData data = (PixelArtModel.ProjectData) ois.readObject();
+            return () -> model.fromProjectData(data);
         }
-        return copy;
     }
 
-    private long gcd(long a, long b) {
-        while (b != 0) {
-            long t = b;
-            b = a % b;
-            a = t;
+    /**
+     * Releases every archive opened or saved here that is not in inUse, e.g. after
+     * another project was loaded; each closes once background jobs holding it finish.
+     */
+    public void releaseArchives(Set<ProjectArchive> inUse) {
+        for (Iterator<ProjectArchive> it = archives.iterator(); it.hasNext();) {
+            ProjectArchive archive = it.next();
+            if (inUse.contains(archive))
+                continue;
+            it.remove();
+            archive.release();
+        }
+    }
+
+    private BufferedImage toImage(Color[][][] layerData, PixelOps.Blending blending, int cols, int rows) {
+        return PixelOps.compositeImage(layerData, blending, cols, rows);
+    }
+
+    private void writeGif(FrameStream framesOut, GifEncoder.Palette palette, List<int[]> runs, String path, int cols,
+            int rows, IntConsumer frameWritten) throws IOException {
+        try (GifEncoder gif = new GifEncoder(new BufferedOutputStream(new FileOutputStream(path), 1 << 16),
+                cols, rows, palette)) {
+            BufferedImage bi;
+            for (int k = 0; (bi = framesOut.next()) != null; k++) {
+                gif.addFrame(PixelOps.argbPixels(bi), runs.get(k)[1]);
+                frameWritten.accept(k);
+            }
+            gif.finish();
         }
-        return Math.max(1, a);
     }
 
     private int lcm(int a, int b) {
-        long g = gcd(a, b);
-        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (a / g) * (long) b));
+        long x = a, y = b;
+        while (y != 0) {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, a / Math.max(1, x) * (long) b));
     }
 }
@@ -5,8 +5,17 @@ public class PixelArtLauncher {
         SwingUtilities.invokeLater(() -> {
             PixelArtModel model = new PixelArtModel();
             SwingPixelArtView view = new SwingPixelArtView();
-            new PixelArtController(model, view); // controller wires the canvas into the view
+            PixelArtController controller = new PixelArtController(model, view); // controller wires the canvas into the view
             view.start();
+            if (controller.hasRecovery()) {
+                boolean recovered = view.showConfirmDialog("Recover unsaved work from the last session?")
+                        && controller.recover();
+                if (!recovered) {
+                    controller.discardRecovery();
+                }
+            }
+            // start only after the prompt so a pending recovery file is never overwritten
+            controller.startAutosave();
         });
     }
 }
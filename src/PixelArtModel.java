@@ -3,9 +3,14 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class PixelArtModel implements Serializable {
     private static final long serialVersionUID = 1L;
+    // 64M cells, e.g. 256 frames of 512x512: the most a merge may grow a timeline to
+    static final long MERGE_CELL_BUDGET = 64L << 20;
 
     // Canvas and layers
     private int columns = 128;
@@ -15,6 +20,8 @@ public class PixelArtModel implements Serializable {
     private Color[][][] layers; // [layer][row][col]
     private boolean[] layerVisible = { true, true, true };
     private String[] layerNames = { "L1", "L2", "L3" };
+    private int[] layerOpacity; // 0-255
+    private BlendMode[] layerBlend;
 
     // Animation
     private List<FrameData>[] layerFrames;
@@ -45,10 +52,23 @@ public class PixelArtModel implements Serializable {
         int cols, rows, cellSize, activeLayer, brushSize, red, green, blue, frameRate;
         String[] layerNames;
         boolean[] layerVisible, animatedLayers;
+        int[] layerOpacity;
+        BlendMode[] layerBlend;
         int[] currentFrameIndex;
         Color viewportBg;
         List<List<Color[][]>> layerFrames;
         int[] toolBrushSizes;
+
+        /** True when both hold the same settings; frames are not compared. */
+        boolean sameSettings(ProjectData o) {
+            return o != null && cols == o.cols && rows == o.rows && cellSize == o.cellSize
+                    && activeLayer == o.activeLayer && brushSize == o.brushSize && red == o.red && green == o.green
+                    && blue == o.blue && frameRate == o.frameRate && Objects.equals(viewportBg, o.viewportBg)
+                    && Arrays.equals(layerNames, o.layerNames) && Arrays.equals(layerVisible, o.layerVisible)
+                    && Arrays.equals(animatedLayers, o.animatedLayers) && Arrays.equals(layerOpacity, o.layerOpacity)
+                    && Arrays.equals(layerBlend, o.layerBlend) && Arrays.equals(currentFrameIndex, o.currentFrameIndex)
+                    && Arrays.equals(toolBrushSizes, o.toolBrushSizes);
+        }
     }
 
     public PixelArtModel() {
@@ -73,10 +93,14 @@ public class PixelArtModel implements Serializable {
         for (int i = 0; i < layerCount; i++) {
             layerNames[i] = "L" + (i + 1);
         }
+        layerOpacity = new int[layerCount];
+        Arrays.fill(layerOpacity, 255);
+        layerBlend = new BlendMode[layerCount];
+        Arrays.fill(layerBlend, BlendMode.NORMAL);
     }
 
     private void initAnimation() {
-        layerFrames = new ArrayList[layerCount];
+        layerFrames = newFrameLists(layerCount);
         currentFrameIndex = new int[layerCount];
         animatedLayers = new boolean[layerCount];
         for (int i = 0; i < layerCount; i++) {
@@ -360,6 +384,38 @@ public class PixelArtModel implements Serializable {
             layerNames[layer] = name;
     }
 
+    public int getLayerOpacity(int layer) {
+        if (layer >= 0 && layer < layerCount)
+            return layerOpacity[layer];
+        return 255;
+    }
+
+    public void setLayerOpacity(int layer, int opacity) {
+        if (layer >= 0 && layer < layerCount)
+            layerOpacity[layer] = Math.max(0, Math.min(255, opacity));
+    }
+
+    public BlendMode getLayerBlend(int layer) {
+        if (layer >= 0 && layer < layerCount)
+            return layerBlend[layer];
+        return BlendMode.NORMAL;
+    }
+
+    public void setLayerBlend(int layer, BlendMode mode) {
+        if (layer >= 0 && layer < layerCount && mode != null)
+            layerBlend[layer] = mode;
+    }
+
+    /** Blend mode and opacity of every layer for compositing; hidden layers get opacity 0. */
+    PixelOps.Blending getBlending() {
+        int[] opacity = layerOpacity.clone();
+        for (int l = 0; l < layerCount; l++) {
+            if (!layerVisible[l])
+                opacity[l] = 0;
+        }
+        return new PixelOps.Blending(layerBlend.clone(), opacity);
+    }
+
     public Color[][] getLayerCopy(int layer) {
         if (layer < 0 || layer >= layerCount)
             return null;
@@ -392,6 +448,12 @@ public class PixelArtModel implements Serializable {
         String tmpName = layerNames[a];
         layerNames[a] = layerNames[b];
         layerNames[b] = tmpName;
+        int tmpOpacity = layerOpacity[a];
+        layerOpacity[a] = layerOpacity[b];
+        layerOpacity[b] = tmpOpacity;
+        BlendMode tmpBlend = layerBlend[a];
+        layerBlend[a] = layerBlend[b];
+        layerBlend[b] = tmpBlend;
         List<FrameData> tmpFrames = layerFrames[a];
         layerFrames[a] = layerFrames[b];
         layerFrames[b] = tmpFrames;
@@ -417,10 +479,149 @@ public class PixelArtModel implements Serializable {
         }
     }
 
+    /** Inserts an empty, visible layer at index (above the layers below it) and makes it active. */
+    public void addLayer(int index) {
+        saveCurrentFrames();
+        int at = Math.max(0, Math.min(layerCount, index));
+        int[] from = new int[layerCount + 1];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = i < at ? i : i == at ? -1 : i - 1;
+        }
+        remapLayers(from);
+        activeLayer = at;
+    }
+
+    /** Deletes a layer and its frames; the last remaining layer cannot be removed. */
+    public boolean removeLayer(int index) {
+        if (layerCount <= 1 || index < 0 || index >= layerCount)
+            return false;
+        saveCurrentFrames();
+        int[] from = new int[layerCount - 1];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = i < index ? i : i + 1;
+        }
+        remapLayers(from);
+        activeLayer = Math.max(0, Math.min(index - 1, layerCount - 1));
+        return true;
+    }
+
+    /** Frames the layer below index would hold after mergeLayerDown(index). */
+    public int mergedFrameCount(int index) {
+        return lcm(layerFrames[index].size(), layerFrames[index - 1].size());
+    }
+
+    /**
+     * Most frames mergeLayerDown(index) should be allowed to produce: the longer
+     * of the two timelines, or more while all merged frames together stay within
+     * MERGE_CELL_BUDGET cells.
+     */
+    public int mergeFrameLimit(int index) {
+        int longer = Math.max(layerFrames[index].size(), layerFrames[index - 1].size());
+        return (int) Math.max(longer, Math.min(Integer.MAX_VALUE, MERGE_CELL_BUDGET / ((long) rows * columns)));
+    }
+
+    /**
+     * Composites a layer onto the one below it, frame by frame, with its blend
+     * mode and opacity, and removes it. Timelines of different lengths loop as in
+     * playback, so the merged layer gets the least common multiple of the two
+     * lengths; callers check that against mergeFrameLimit first. The layer below
+     * keeps its own mode and opacity.
+     */
+    public boolean mergeLayerDown(int index) {
+        if (index <= 0 || index >= layerCount)
+            return false;
+        saveCurrentFrames();
+        List<FrameData> top = layerFrames[index];
+        List<FrameData> bottom = layerFrames[index - 1];
+        int count = lcm(top.size(), bottom.size());
+        BlendMode mode = layerBlend[index];
+        int opacity = layerOpacity[index];
+        FrameData[] merged = new FrameData[count];
+        IntStream.range(0, count).parallel().forEach(i -> merged[i] = new FrameData(PixelOps.mergeOver(
+                top.get(i % top.size()).getLayer(), bottom.get(i % bottom.size()).getLayer(), mode, opacity)));
+        int shown = bottom.size() >= top.size() ? currentFrameIndex[index - 1] : currentFrameIndex[index];
+        layerFrames[index - 1] = new ArrayList<>(Arrays.asList(merged));
+        currentFrameIndex[index - 1] = Math.max(0, Math.min(shown, count - 1));
+        int[] from = new int[layerCount - 1];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = i < index ? i : i + 1;
+        }
+        remapLayers(from);
+        activeLayer = index - 1;
+        applyAllCurrentFrames();
+        return true;
+    }
+
+    // Rebuilds the per-layer arrays so layer i is old layer from[i], or a new empty one where from[i] is -1
+    private void remapLayers(int[] from) {
+        int count = from.length;
+        Color[][][] nextLayers = new Color[count][][];
+        boolean[] nextVisible = new boolean[count];
+        String[] nextNames = new String[count];
+        int[] nextOpacity = new int[count];
+        BlendMode[] nextBlend = new BlendMode[count];
+        List<FrameData>[] nextFrames = newFrameLists(count);
+        int[] nextIndex = new int[count];
+        boolean[] nextAnimated = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int src = from[i];
+            if (src >= 0) {
+                nextLayers[i] = layers[src];
+                nextVisible[i] = layerVisible[src];
+                nextNames[i] = layerNames[src];
+                nextOpacity[i] = layerOpacity[src];
+                nextBlend[i] = layerBlend[src];
+                nextFrames[i] = layerFrames[src];
+                nextIndex[i] = currentFrameIndex[src];
+                nextAnimated[i] = animatedLayers[src];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (from[i] < 0) {
+                nextLayers[i] = new Color[rows][columns];
+                nextVisible[i] = true;
+                nextNames[i] = unusedLayerName(nextNames);
+                nextOpacity[i] = 255;
+                nextBlend[i] = BlendMode.NORMAL;
+                nextFrames[i] = new ArrayList<>();
+                nextFrames[i].add(new FrameData(new Color[rows][columns]));
+                nextAnimated[i] = true;
+            }
+        }
+        layerCount = count;
+        layers = nextLayers;
+        layerVisible = nextVisible;
+        layerNames = nextNames;
+        layerOpacity = nextOpacity;
+        layerBlend = nextBlend;
+        layerFrames = nextFrames;
+        currentFrameIndex = nextIndex;
+        animatedLayers = nextAnimated;
+    }
+
+    private static String unusedLayerName(String[] names) {
+        List<String> taken = Arrays.asList(names);
+        int n = 1;
+        while (taken.contains("L" + n)) {
+            n++;
+        }
+        return "L" + n;
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a, y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) (a / Math.max(1, x)) * b);
+    }
+
     public void initLayerFrames(int count) {
         if (count <= 0)
             count = 1;
-        layerFrames = new ArrayList[count];
+        layerFrames = newFrameLists(count);
         currentFrameIndex = new int[count];
         animatedLayers = new boolean[count];
         for (int i = 0; i < count; i++) {
@@ -471,6 +672,138 @@ public class PixelArtModel implements Serializable {
         }
     }
 
+    /**
+     * Runs an in-place pixel operation on a copy of every frame of one layer, in
+     * parallel, and reloads the current frames. Unchanged frames are kept.
+     */
+    public void transformLayerFrames(int layer, Consumer<Color[][]> op) {
+        if (layer < 0 || layer >= layerCount)
+            return;
+        saveCurrentFrames();
+        List<FrameData> frames = layerFrames[layer];
+        FrameData[] updated = frames.toArray(new FrameData[0]);
+        IntStream.range(0, updated.length).parallel().forEach(i -> {
+            Color[][] src = updated[i].getLayer();
+            Color[][] copy = new Color[rows][];
+            for (int r = 0; r < rows; r++) {
+                copy[r] = Arrays.copyOf(src[r], columns);
+            }
+            op.accept(copy);
+            if (!sameContent(src, copy)) {
+                updated[i] = new FrameData(copy);
+            }
+        });
+        for (int i = 0; i < updated.length; i++) {
+            frames.set(i, updated[i]);
+        }
+        applyAllCurrentFrames();
+    }
+
+    /** Runs an in-place pixel operation on the shown frame of one layer and stores it in the timeline. */
+    public void transformCurrentFrame(int layer, Consumer<Color[][]> op) {
+        if (layer < 0 || layer >= layerCount)
+            return;
+        saveCurrentFrames();
+        op.accept(layers[layer]);
+        saveCurrentFrames();
+    }
+
+    /** Scales the canvas and every frame of every layer by an integer factor (nearest neighbour). */
+    public void resample(int factor) {
+        if (factor <= 1)
+            return;
+        saveCurrentFrames();
+        applyResampled(resampleFrames(layerFrames, columns, rows, factor, null), factor);
+    }
+
+    /**
+     * Scales every frame of a snapshotFrames() copy by factor without touching
+     * the model, so it can run off the EDT; frameDone runs after each frame and
+     * may throw to abandon the work.
+     */
+    public static List<FrameData>[] resampleFrames(List<FrameData>[] frames, int oldCols, int oldRows, int factor,
+            Runnable frameDone) {
+        int newRows = oldRows * factor;
+        int newCols = oldCols * factor;
+        List<FrameData>[] result = newFrameLists(frames.length);
+        for (int l = 0; l < frames.length; l++) {
+            FrameData[] scaled = frames[l].toArray(new FrameData[0]);
+            IntStream.range(0, scaled.length).parallel().forEach(i -> {
+                Color[][] src = scaled[i].getLayer();
+                Color[][] dest = new Color[newRows][newCols];
+                for (int r = 0; r < newRows; r++) {
+                    Color[] srcRow = src[Math.min(oldRows - 1, r / factor)];
+                    Color[] destRow = dest[r];
+                    for (int c = 0; c < newCols; c++) {
+                        destRow[c] = srcRow[Math.min(oldCols - 1, c / factor)];
+                    }
+                }
+                scaled[i] = new FrameData(dest);
+                if (frameDone != null)
+                    frameDone.run();
+            });
+            result[l] = new ArrayList<>(Arrays.asList(scaled));
+        }
+        return result;
+    }
+
+    /** Installs frames produced by resampleFrames from this model's current frames. */
+    public void applyResampled(List<FrameData>[] scaled, int factor) {
+        for (int l = 0; l < layerFrames.length; l++) {
+            layerFrames[l].clear();
+            layerFrames[l].addAll(scaled[l]);
+        }
+        setDimensions(columns * factor, rows * factor);
+        layers = new Color[layerCount][rows][columns];
+        applyAllCurrentFrames();
+    }
+
+    /** Replaces every layer's timeline and shown frame, e.g. with a snapshotFrames() copy kept for undo. */
+    public void restoreFrames(List<FrameData>[] frames, int[] frameIndex) {
+        for (int l = 0; l < Math.min(layerFrames.length, frames.length); l++) {
+            layerFrames[l].clear();
+            layerFrames[l].addAll(frames[l]);
+            currentFrameIndex[l] = frameIndex[l];
+        }
+        applyAllCurrentFrames();
+    }
+
+    /**
+     * True when the model still shows exactly what a snapshotFrames() copy and
+     * frame indices taken earlier held, for one layer or all (layer -1). Saves
+     * the current frames first so unsaved edits count as changes.
+     */
+    public boolean unchangedSince(List<FrameData>[] snapshot, int[] frameIndex, int layer) {
+        saveCurrentFrames();
+        if (snapshot.length != layerFrames.length)
+            return false;
+        for (int l = 0; l < layerFrames.length; l++) {
+            if (layer >= 0 && l != layer)
+                continue;
+            List<FrameData> frames = layerFrames[l];
+            if (frames.size() != snapshot[l].size() || currentFrameIndex[l] != frameIndex[l])
+                return false;
+            for (int i = 0; i < frames.size(); i++) {
+                if (frames.get(i) != snapshot[l].get(i))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** Replaces the active layer's timeline, e.g. with imported frames, and selects the first frame. */
+    public void replaceActiveLayerFrames(List<Color[][]> frames) {
+        if (frames.isEmpty())
+            return;
+        List<FrameData> timeline = layerFrames[activeLayer];
+        timeline.clear();
+        for (Color[][] frame : frames) {
+            timeline.add(new FrameData(frame));
+        }
+        currentFrameIndex[activeLayer] = 0;
+        setLayer(activeLayer, frames.get(0));
+    }
+
     public void selectFrame(int index) {
         List<FrameData> frames = layerFrames[activeLayer];
         if (index < 0 || index >= frames.size())
@@ -498,7 +831,7 @@ public class PixelArtModel implements Serializable {
                 continue;
             int idx = Math.max(0, Math.min(currentFrameIndex[l], frames.size() - 1));
             FrameData fd = frames.get(idx);
-            setLayer(l, fd.layer);
+            setLayer(l, fd.getLayer());
         }
     }
 
@@ -508,17 +841,77 @@ public class PixelArtModel implements Serializable {
             if (frames.isEmpty())
                 continue;
             int idx = Math.max(0, Math.min(currentFrameIndex[l], frames.size() - 1));
+            // keep the existing frame when nothing changed so saves can skip it
+            if (sameContent(frames.get(idx).getLayer(), layers[l]))
+                continue;
             frames.set(idx, new FrameData(getLayerCopy(l)));
         }
     }
 
+    /**
+     * Shallow copy of every layer's frame list. FrameData is never modified once
+     * created (edits replace it), so the copy is a stable snapshot of all pixels.
+     */
+    public List<FrameData>[] snapshotFrames() {
+        List<FrameData>[] copy = newFrameLists(layerFrames.length);
+        for (int l = 0; l < layerFrames.length; l++) {
+            copy[l] = new ArrayList<>(layerFrames[l]);
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<FrameData>[] newFrameLists(int count) {
+        return (List<FrameData>[]) new List<?>[count];
+    }
+
+    /** Replaces frames with equivalent ones, e.g. archive-backed copies after a save. */
+    public void adoptFrames(List<List<FrameData>> frames) {
+        for (int l = 0; l < Math.min(layerCount, frames.size()); l++) {
+            List<FrameData> src = frames.get(l);
+            if (src.size() != layerFrames[l].size())
+                continue;
+            for (int i = 0; i < src.size(); i++) {
+                layerFrames[l].set(i, src.get(i));
+            }
+        }
+    }
+
+    static boolean sameContent(Color[][] a, Color[][] b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.length != b.length)
+            return false;
+        for (int r = 0; r < a.length; r++) {
+            if (!Arrays.equals(a[r], b[r]))
+                return false;
+        }
+        return true;
+    }
+
     public ProjectData toProjectData() {
+        ProjectData data = toProjectMetadata();
+        data.layerFrames = new ArrayList<>();
+        for (List<FrameData> lf : layerFrames) {
+            List<Color[][]> saved = new ArrayList<>();
+            for (FrameData fd : lf) {
+                saved.add(cloneLayer(fd.getLayer()));
+            }
+            data.layerFrames.add(saved);
+        }
+        return data;
+    }
+
+    /** Project settings without frame pixels; frames are written separately by ProjectArchive. */
+    public ProjectData toProjectMetadata() {
         ProjectData data = new ProjectData();
         data.cols = columns;
         data.rows = rows;
         data.cellSize = canvasCellSize;
         data.layerNames = layerNames.clone();
         data.layerVisible = layerVisible.clone();
+        data.layerOpacity = layerOpacity.clone();
+        data.layerBlend = layerBlend.clone();
         data.animatedLayers = animatedLayers.clone();
         data.currentFrameIndex = currentFrameIndex.clone();
         data.activeLayer = activeLayer;
@@ -529,29 +922,41 @@ public class PixelArtModel implements Serializable {
         data.blue = colorState.getBlue();
         data.frameRate = frameRate;
         data.viewportBg = viewportBg;
-        data.layerFrames = new ArrayList<>();
-        for (List<FrameData> lf : layerFrames) {
-            List<Color[][]> saved = new ArrayList<>();
-            for (FrameData fd : lf) {
-                saved.add(cloneLayer(fd.layer));
-            }
-            data.layerFrames.add(saved);
-        }
         return data;
     }
 
     public void fromProjectData(ProjectData data) {
+        List<List<FrameData>> frames = new ArrayList<>();
+        for (List<Color[][]> saved : data.layerFrames) {
+            List<FrameData> dest = new ArrayList<>();
+            for (Color[][] layer : saved) {
+                dest.add(new FrameData(cloneLayer(layer)));
+            }
+            frames.add(dest);
+        }
+        fromProjectData(data, frames);
+    }
+
+    /** Restores settings from {@code data} and adopts {@code frames} as-is (they may be lazy). */
+    public void fromProjectData(ProjectData data, List<List<FrameData>> frames) {
         columns = Math.max(1, data.cols);
         rows = Math.max(1, data.rows);
         canvasCellSize = Math.min(256, Math.max(2, data.cellSize));
-        layerCount = data.layerFrames.size();
+        layerCount = frames.size();
         initLayers();
         ensureLayerNamesSize(data.layerNames.length);
         System.arraycopy(data.layerNames, 0, layerNames, 0, Math.min(layerNames.length, data.layerNames.length));
         System.arraycopy(data.layerVisible, 0, layerVisible, 0,
                 Math.min(layerVisible.length, data.layerVisible.length));
-        animatedLayers = Arrays.copyOf(data.animatedLayers, layerCount);
-        currentFrameIndex = Arrays.copyOf(data.currentFrameIndex, layerCount);
+        // projects from before opacity and blend modes leave these null
+        if (data.layerOpacity != null)
+            System.arraycopy(data.layerOpacity, 0, layerOpacity, 0, Math.min(layerCount, data.layerOpacity.length));
+        if (data.layerBlend != null) {
+            for (int l = 0; l < Math.min(layerCount, data.layerBlend.length); l++) {
+                if (data.layerBlend[l] != null)
+                    layerBlend[l] = data.layerBlend[l];
+            }
+        }
         int defaultBrush = Math.max(1, data.brushSize);
         toolBrushSizes = rebuildToolBrushSizes(data.toolBrushSizes, defaultBrush);
         brushSize = toolBrushSizes[toolMode.ordinal()];
@@ -560,19 +965,42 @@ public class PixelArtModel implements Serializable {
         activeLayer = Math.max(0, Math.min(data.activeLayer, layerCount - 1));
         initLayerFrames(layerCount);
         for (int l = 0; l < layerCount; l++) {
-            List<Color[][]> saved = data.layerFrames.get(l);
             List<FrameData> dest = layerFrames[l];
             dest.clear();
-            for (Color[][] layer : saved) {
-                dest.add(new FrameData(cloneLayer(layer)));
-            }
+            dest.addAll(frames.get(l));
             if (dest.isEmpty()) {
                 dest.add(new FrameData(new Color[rows][columns]));
             }
+            // set after initLayerFrames, which resets both
+            if (l < data.animatedLayers.length)
+                animatedLayers[l] = data.animatedLayers[l];
+            if (l < data.currentFrameIndex.length)
+                currentFrameIndex[l] = Math.floorMod(data.currentFrameIndex[l], dest.size());
         }
         applyAllCurrentFrames();
     }
 
+    /**
+     * Puts back the size, layers and timelines of a toProjectMetadata() and
+     * snapshotFrames() pair taken earlier, e.g. for undo; brush and colour stay
+     * as they are now.
+     */
+    public void restoreProject(ProjectData saved, List<FrameData>[] frames) {
+        ProjectData data = toProjectMetadata();
+        data.cols = saved.cols;
+        data.rows = saved.rows;
+        data.cellSize = saved.cellSize;
+        data.layerNames = saved.layerNames;
+        data.layerVisible = saved.layerVisible;
+        data.layerOpacity = saved.layerOpacity;
+        data.layerBlend = saved.layerBlend;
+        data.animatedLayers = saved.animatedLayers;
+        data.currentFrameIndex = saved.currentFrameIndex;
+        data.activeLayer = saved.activeLayer;
+        data.frameRate = saved.frameRate;
+        fromProjectData(data, Arrays.asList(frames));
+    }
+
     private Color[][] cloneLayer(Color[][] src) {
         if (src == null)
             return null;
@@ -585,10 +1013,39 @@ public class PixelArtModel implements Serializable {
 
     public static class FrameData implements Serializable {
         private static final long serialVersionUID = 1L;
-        public final Color[][] layer;
+        private final Color[][] layer;
+        // Frames opened from a ProjectArchive decode on demand instead of holding pixels
+        private final transient ProjectArchive source;
+        private final transient int chunk;
 
         public FrameData(Color[][] layer) {
             this.layer = layer;
+            this.source = null;
+            this.chunk = -1;
+        }
+
+        FrameData(ProjectArchive source, int chunk) {
+            this.layer = null;
+            this.source = source;
+            this.chunk = chunk;
+        }
+
+        public Color[][] getLayer() {
+            if (layer != null || source == null)
+                return layer;
+            return source.decode(chunk);
+        }
+
+        boolean isArchived() {
+            return source != null;
+        }
+
+        ProjectArchive getSource() {
+            return source;
+        }
+
+        int getChunk() {
+            return chunk;
         }
     }
 }
@@ -0,0 +1,275 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays an input trace recorded with the console's record command against a
+ * headless controller and canvas, and reports per-event input handling time,
+ * paint time and end-to-end latency. Every event that requested a repaint is
+ * painted once, as Swing would before the next event when input is slower
+ * than the display.
+ *
+ * <pre>
+ * java -cp out PixelArtReplay [-p start.pxp] [-w warmups] [-o events.csv] trace.txt
+ * </pre>
+ *
+ * Warmup runs replay the whole trace on a fresh model first so the measured
+ * run sees compiled code. The result hash identifies the final canvas, so a
+ * changed hash between releases means the replay no longer draws the same thing.
+ */
+public class PixelArtReplay {
+    private static final String USAGE = "Usage: PixelArtReplay [-p start.pxp] [-w warmups] [-o events.csv] trace.txt";
+
+    /** Timings of one replay, indexed by trace event. */
+    static final class Run {
+        final long[] inputNanos;
+        final long[] paintNanos;
+        int paints;
+        long wallNanos;
+        long resultHash;
+
+        Run(int events) {
+            inputNanos = new long[events];
+            paintNanos = new long[events];
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        String project = null;
+        File csv = null;
+        File traceFile = null;
+        int warmups = 2;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-p" -> project = args[++i];
+                    case "-w" -> warmups = Math.max(0, Integer.parseInt(args[++i]));
+                    case "-o" -> csv = new File(args[++i]);
+                    default -> {
+                        if (traceFile != null)
+                            throw new IllegalArgumentException(args[i]);
+                        traceFile = new File(args[i]);
+                    }
+                }
+            }
+        } catch (RuntimeException ex) {
+            err.println(USAGE);
+            return PixelArtBatch.EXIT_USAGE;
+        }
+        if (traceFile == null) {
+            err.println(USAGE);
+            return PixelArtBatch.EXIT_USAGE;
+        }
+        try {
+            InputTrace trace = InputTrace.read(traceFile);
+            Run run = null;
+            for (int i = 0; i <= warmups; i++) {
+                run = replay(trace, project);
+            }
+            report(out, traceFile.getName(), trace, run);
+            if (csv != null) {
+                writeCsv(csv, trace, run);
+            }
+            return PixelArtBatch.EXIT_OK;
+        } catch (Exception ex) {
+            err.println("Replay failed: " + ex.getMessage());
+            return PixelArtBatch.EXIT_FAILED;
+        }
+    }
+
+    static Run replay(InputTrace trace, String project) throws IOException, ClassNotFoundException {
+        PixelArtModel model = new PixelArtModel(trace.columns, trace.rows);
+        HeadlessPixelArtView view = new HeadlessPixelArtView();
+        PixelArtController controller = new PixelArtController(model, view);
+        if (project != null) {
+            controller.loadProject(project);
+        }
+        view.setCanvasCellSize(trace.cellSize);
+        Run run = new Run(trace.events.size());
+        BufferedImage target = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < trace.events.size(); i++) {
+            InputTrace.Event e = trace.events.get(i);
+            if (e.kind.equals("state")) {
+                applyState(e, model, view, controller);
+                continue;
+            }
+            PixelCanvas canvas = view.getCanvas();
+            int canvasRepaints = canvas.getRepaintRequests();
+            int viewRepaints = view.getCanvasRepaintCount();
+            long t0 = System.nanoTime();
+            dispatch(e, canvas, view);
+            long t1 = System.nanoTime();
+            run.inputNanos[i] = t1 - t0;
+
+            // a command may have rebuilt the canvas; a new canvas always paints
+            canvas = view.getCanvas();
+            boolean dirty = canvas.getRepaintRequests() != canvasRepaints || view.getCanvasRepaintCount() != viewRepaints;
+            if (dirty) {
+                int w = canvas.getColumns() * canvas.getCellSize();
+                int h = canvas.getRows() * canvas.getCellSize();
+                if (target == null || target.getWidth() != w || target.getHeight() != h) {
+                    target = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                }
+                Graphics2D g = target.createGraphics();
+                try {
+                    canvas.paintComponent(g);
+                } finally {
+                    g.dispose();
+                }
+                run.paintNanos[i] = System.nanoTime() - t1;
+                run.paints++;
+            }
+        }
+        run.wallNanos = System.nanoTime() - start;
+        run.resultHash = PixelArtFileHandler.contentHash(view.getCanvasImage());
+        return run;
+    }
+
+    // tool, colour, brush, layer and cell size, applied only where they differ so undo history matches the recording
+    private static void applyState(InputTrace.Event e, PixelArtModel model, HeadlessPixelArtView view,
+            PixelArtController controller) {
+        ToolMode tool = ToolMode.valueOf(e.args[0]);
+        Color color = new Color((int) Long.parseLong(e.args[1], 16), true);
+        int brush = e.intArg(2);
+        int layer = e.intArg(3);
+        int cell = e.intArg(4);
+        if (model.getActiveLayer() != layer)
+            controller.setActiveLayer(layer);
+        if (model.getToolMode() != tool)
+            view.selectTool(tool);
+        if (!color.equals(model.getCurrentBrushColor()))
+            controller.pickBrushColor(color);
+        if (model.getBrushSize() != brush)
+            controller.setBrushSize(brush);
+        if (view.getCanvasCellSize() != cell)
+            view.setCanvasCellSize(cell);
+    }
+
+    private static void dispatch(InputTrace.Event e, PixelCanvas canvas, HeadlessPixelArtView view) {
+        long when = e.micros / 1000;
+        switch (e.kind) {
+            case "press" -> canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_PRESSED, when, e.intArg(3),
+                    e.intArg(0), e.intArg(1), 1, false, e.intArg(2)));
+            case "release" -> canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_RELEASED, when, e.intArg(3),
+                    e.intArg(0), e.intArg(1), 1, false, e.intArg(2)));
+            case "drag" -> canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_DRAGGED, when, e.intArg(2),
+                    e.intArg(0), e.intArg(1), 0, false, MouseEvent.NOBUTTON));
+            case "move" -> canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_MOVED, when, e.intArg(2),
+                    e.intArg(0), e.intArg(1), 0, false, MouseEvent.NOBUTTON));
+            case "exit" -> canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_EXITED, when, 0, -1, -1, 0,
+                    false, MouseEvent.NOBUTTON));
+            case "wheel" -> canvas.dispatchEvent(new MouseWheelEvent(canvas, MouseEvent.MOUSE_WHEEL, when, e.intArg(3),
+                    e.intArg(0), e.intArg(1), 0, false, MouseWheelEvent.WHEEL_UNIT_SCROLL, 1, e.intArg(2)));
+            case "action" -> action(e, view);
+            case "command" -> {
+                String command = e.rest();
+                String name = command.split("\\s+")[0].toLowerCase(Locale.ROOT);
+                if (!name.equals("exit") && !name.equals("record")) {
+                    view.submitCommand(command);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown trace event: " + e.kind);
+        }
+    }
+
+    private static void action(InputTrace.Event e, HeadlessPixelArtView view) {
+        switch (e.args[0]) {
+            case "undo" -> view.undo();
+            case "redo" -> view.redo();
+            case "tool" -> view.selectTool(ToolMode.valueOf(e.args[1]));
+            case "brush" -> view.setBrushSize(e.intArg(1));
+            case "frame" -> view.stepFrame(e.intArg(1));
+            case "onion" -> view.toggleOnion();
+            case "flip-h" -> view.flipHorizontal();
+            case "flip-v" -> view.flipVertical();
+            default -> throw new IllegalArgumentException("Unknown trace action: " + e.args[0]);
+        }
+    }
+
+    private static void report(PrintStream out, String name, InputTrace trace, Run run) {
+        int events = 0;
+        int overBudget = 0;
+        long[] input = new long[trace.events.size()];
+        long[] latency = new long[trace.events.size()];
+        long[] paint = new long[run.paints];
+        long paintTotal = 0;
+        int p = 0;
+        for (int i = 0; i < trace.events.size(); i++) {
+            if (trace.events.get(i).kind.equals("state"))
+                continue;
+            input[events] = run.inputNanos[i];
+            latency[events] = run.inputNanos[i] + run.paintNanos[i];
+            events++;
+            if (run.paintNanos[i] > 0) {
+                paint[p++] = run.paintNanos[i];
+                paintTotal += run.paintNanos[i];
+            }
+            // the user produced the next event this soon; taking longer is visible lag
+            long gapMicros = nextGap(trace, i);
+            if (gapMicros > 0 && latency[events - 1] / 1000 > gapMicros) {
+                overBudget++;
+            }
+        }
+        input = Arrays.copyOf(input, events);
+        latency = Arrays.copyOf(latency, events);
+        long recorded = trace.events.isEmpty() ? 0 : trace.events.get(trace.events.size() - 1).micros;
+        out.printf(Locale.ROOT, "%s: %d events, %.1f s recorded, replayed in %.1f ms%n", name, events,
+                recorded / 1e6, run.wallNanos / 1e6);
+        out.println("  input    " + percentiles(input));
+        out.println("  paint    " + percentiles(paint) + String.format(Locale.ROOT, "  (%d paints, %.1f ms total)",
+                run.paints, paintTotal / 1e6));
+        out.println("  latency  " + percentiles(latency));
+        out.println("  slower than the next recorded event: " + overBudget);
+        out.printf("  result %016x%n", run.resultHash);
+    }
+
+    private static long nextGap(InputTrace trace, int i) {
+        for (int j = i + 1; j < trace.events.size(); j++) {
+            InputTrace.Event next = trace.events.get(j);
+            if (!next.kind.equals("state"))
+                return next.micros - trace.events.get(i).micros;
+        }
+        return 0;
+    }
+
+    private static String percentiles(long[] nanos) {
+        if (nanos.length == 0)
+            return "-";
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "p50 %.3f  p95 %.3f  p99 %.3f  max %.3f ms", at(sorted, 0.50) / 1e6,
+                at(sorted, 0.95) / 1e6, at(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long at(long[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static void writeCsv(File file, InputTrace trace, Run run) throws IOException {
+        try (PrintWriter w = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            w.println("index,micros,kind,input_us,paint_us");
+            for (int i = 0; i < trace.events.size(); i++) {
+                InputTrace.Event e = trace.events.get(i);
+                if (e.kind.equals("state"))
+                    continue;
+                w.printf(Locale.ROOT, "%d,%d,%s,%.1f,%.1f%n", i, e.micros, e.kind, run.inputNanos[i] / 1e3,
+                        run.paintNanos[i] / 1e3);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.IntConsumer;
 import java.util.function.IntPredicate;
@@ -35,6 +36,11 @@ public interface PixelArtView {
 
     void setConsoleStatus(String status);
 
+    String getConsoleStatus();
+
+    /** Progress of a background command in percent; -1 hides it. */
+    void setConsoleProgress(int percent);
+
     void showAnimationPanel(boolean visible);
 
     // Callbacks setup
@@ -61,6 +67,10 @@ public interface PixelArtView {
     void setRedoCallback(Runnable callback);
     void setFrameStepCallback(IntConsumer callback);
     void setToggleOnionCallback(Runnable callback);
+    /** Esc first offers itself to this callback, which returns true if it cancelled something. */
+    void setCancelCallback(BooleanSupplier callback);
+    /** Runs instead of exiting when the user closes the window. */
+    void setCloseCallback(Runnable callback);
 
     // Controllers
     void setCanvasController(Object canvasController); // PixelCanvas
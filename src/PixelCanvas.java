@@ -4,6 +4,7 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
@@ -19,6 +20,9 @@ import java.util.function.UnaryOperator;
 
 
 class PixelCanvas extends javax.swing.JPanel {
+    private static final Metrics.Timing PAINT_TIME = Metrics.timing("canvas.paint");
+    private static final Metrics.Timing COMPOSITE_TIME = Metrics.timing("canvas.composite");
+    private static final Metrics.Counter INPUT_EVENTS = Metrics.counter("canvas.input");
     private final int columns;
     private final int rows;
     private final int layerCount;
@@ -50,6 +54,18 @@ class PixelCanvas extends javax.swing.JPanel {
     private PixelOps.RotateState rotateState = null;
     private boolean rotateActive = false;
     private boolean stampUsesOwnColors = true;
+    private int repaintRequests;
+    private PerfHud hud;
+    private EditorEvents.Stroke strokeEvent;
+    // Packed ARGB composites of the visible layers below and above the active one. Strokes only change
+    // the active layer, so a repaint blends three sources however many layers there are.
+    private int[] belowComposite;
+    private int[] aboveComposite;
+    private int compositeActive = -1;
+    private PixelOps.Blending compositeBlending;
+    private boolean compositeStale = true;
+    private BufferedImage frameImage;
+    private Supplier<PixelOps.Blending> blendingSupplier;
 
     PixelCanvas(int columns, int rows, int cellSize, java.util.function.Consumer<Color> pickCallback,
                 IntConsumer brushChangeCallback, Supplier<ToolMode> modeSupplier,
@@ -126,6 +142,33 @@ class PixelCanvas extends javax.swing.JPanel {
         }
     }
 
+    /** Shows the performance overlay, or hides it with null. */
+    void setHud(PerfHud next) {
+        if (hud != null) {
+            removeMouseListener(hud);
+            removeMouseMotionListener(hud);
+            removeMouseWheelListener(hud);
+        }
+        hud = next;
+        if (next != null) {
+            addMouseListener(next);
+            addMouseMotionListener(next);
+            addMouseWheelListener(next);
+        }
+        repaint();
+    }
+
+    /** Repaint requests so far, so a headless replay can tell which events would paint. */
+    int getRepaintRequests() {
+        return repaintRequests;
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        repaintRequests++;
+        super.repaint(tm, x, y, width, height);
+    }
+
     int getCellSize() {
         return cellSize;
     }
@@ -183,6 +226,7 @@ class PixelCanvas extends javax.swing.JPanel {
         MouseAdapter adapter = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                INPUT_EVENTS.increment();
                 if (panBlocker != null && panBlocker.getAsBoolean()) {
                     return;
                 }
@@ -208,6 +252,7 @@ class PixelCanvas extends javax.swing.JPanel {
 
             @Override
             public void mouseDragged(MouseEvent e) {
+                INPUT_EVENTS.increment();
                 if (panBlocker != null && panBlocker.getAsBoolean()) {
                     return;
                 }
@@ -224,6 +269,7 @@ class PixelCanvas extends javax.swing.JPanel {
 
             @Override
             public void mouseReleased(MouseEvent e) {
+                INPUT_EVENTS.increment();
                 endStroke();
                 endMove();
                 endRotate();
@@ -231,6 +277,7 @@ class PixelCanvas extends javax.swing.JPanel {
 
             @Override
             public void mouseMoved(MouseEvent e) {
+                INPUT_EVENTS.increment();
                 updateHover(e.getX(), e.getY());
             }
 
@@ -254,6 +301,9 @@ class PixelCanvas extends javax.swing.JPanel {
     }
 
     private void paintAt(int x, int y) {
+        if (strokeEvent != null) {
+            strokeEvent.samples++;
+        }
         int column = toCell(x);
         int row = toCell(y);
         ToolMode mode = modeSupplier != null ? modeSupplier.get() : ToolMode.BRUSH;
@@ -412,10 +462,20 @@ class PixelCanvas extends javax.swing.JPanel {
         if (!strokeActive) {
             pushUndo();
             strokeActive = true;
+            startStrokeEvent();
         }
     }
 
+    // Moves and rotations are strokes too, as far as the recording is concerned
+    private void startStrokeEvent() {
+        strokeEvent = EditorEvents.stroke(modeSupplier != null ? modeSupplier.get() : ToolMode.BRUSH, activeLayer());
+    }
+
     private void endStroke() {
+        if (strokeEvent != null) {
+            EditorEvents.finish(strokeEvent);
+            strokeEvent = null;
+        }
         strokeActive = false;
         constrainStroke = false;
         anchorCol = -1;
@@ -424,11 +484,13 @@ class PixelCanvas extends javax.swing.JPanel {
 
     private void beginMove(int col, int row) {
         pushUndo();
+        startStrokeEvent();
         moveState = PixelOps.beginMove(layers[activeLayer()], col, row);
     }
 
     private void applyMove(int col, int row) {
         if (moveState == null) return;
+        if (strokeEvent != null) strokeEvent.samples++;
         PixelOps.applyMove(layers[activeLayer()], moveState, col, row);
         repaint();
     }
@@ -439,6 +501,7 @@ class PixelCanvas extends javax.swing.JPanel {
 
     private void beginRotate(int col, int row) {
         pushUndo();
+        startStrokeEvent();
         int layer = activeLayer();
         int centerCol = Math.max(0, Math.min(columns - 1, col));
         int centerRow = Math.max(0, Math.min(rows - 1, row));
@@ -449,6 +512,7 @@ class PixelCanvas extends javax.swing.JPanel {
 
     private void applyRotate(int col, int row) {
         if (!rotateActive || rotateState == null) return;
+        if (strokeEvent != null) strokeEvent.samples++;
         PixelOps.applyRotate(layers[activeLayer()], rotateState, col, row);
         repaint();
     }
@@ -460,20 +524,16 @@ class PixelCanvas extends javax.swing.JPanel {
 
     @Override
     protected void paintComponent(Graphics g) {
+        EditorEvents.Paint paintEvent = new EditorEvents.Paint();
+        paintEvent.begin();
+        long paintStart = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g.create();
 
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < columns; c++) {
-                int x = c * cellSize;
-                int y = r * cellSize;
-                Color color = compositeAt(r, c);
-                if (color != null) {
-                    g2.setColor(color);
-                    g2.fillRect(x, y, cellSize, cellSize);
-                }
-            }
-        }
+        compositeFrame();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2.drawImage(frameImage, 0, 0, columns * cellSize, rows * cellSize, null);
+        long compositeEnd = System.nanoTime();
 
         if (hoverCol >= 0 && hoverRow >= 0) {
             if (isStampMode()) {
@@ -574,46 +634,97 @@ class PixelCanvas extends javax.swing.JPanel {
             }
         }
 
+        long paintNanos = System.nanoTime() - paintStart;
+        COMPOSITE_TIME.record(compositeEnd - paintStart);
+        PAINT_TIME.record(paintNanos);
+        if (hud != null) {
+            hud.painted(compositeEnd - paintStart, paintNanos);
+            hud.draw(g2, getVisibleRect());
+        }
         g2.dispose();
+        if (paintEvent.shouldCommit()) {
+            paintEvent.columns = columns;
+            paintEvent.rows = rows;
+            paintEvent.cellSize = cellSize;
+            paintEvent.commit();
+        }
     }
 
     private Color compositeAt(int row, int col) {
-        double outA = 0;
-        double outR = 0, outG = 0, outB = 0;
-        for (int l = layerCount - 1; l >= 0; l--) { // topmost index last painted
-            if (!layerVisiblePredicate.test(l)) continue;
-            Color c = layers[l][row][col];
-            if (c == null) continue;
-            double a = c.getAlpha() / 255.0;
-            double contrib = a * (1.0 - outA);
-            if (contrib <= 0) continue;
-            outR += c.getRed() * contrib;
-            outG += c.getGreen() * contrib;
-            outB += c.getBlue() * contrib;
-            outA += contrib;
-            if (outA >= 0.999) break;
-        }
-        if (outA <= 0) return null;
-        int alpha = PixelConstants.clamp((int) Math.round(outA * 255.0));
-        int r = PixelConstants.clamp((int) Math.round(outR / outA));
-        int g = PixelConstants.clamp((int) Math.round(outG / outA));
-        int b = PixelConstants.clamp((int) Math.round(outB / outA));
-        return new Color(r, g, b, alpha);
+        int argb = PixelOps.compositeCell(layers, blending(), 0, layerCount, row, col, 0);
+        return (argb >>> 24) == 0 ? null : new Color(argb, true);
     }
 
-    BufferedImage toImage() {
-        BufferedImage img = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_ARGB);
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < columns; c++) {
-                Color color = compositeAt(r, c);
-                if (color == null) {
-                    img.setRGB(c, r, 0x00000000); // transparent
-                } else {
-                    img.setRGB(c, r, color.getRGB());
+    /** Supplies each layer's blend mode and opacity; without one, visible layers are drawn normally. */
+    void setBlendingSupplier(Supplier<PixelOps.Blending> supplier) {
+        this.blendingSupplier = supplier;
+        layersChanged();
+        repaint();
+    }
+
+    private PixelOps.Blending blending() {
+        PixelOps.Blending blending = blendingSupplier != null ? blendingSupplier.get() : null;
+        if (blending != null && blending.size() == layerCount)
+            return blending;
+        blending = PixelOps.Blending.normal(layerCount);
+        for (int l = 0; l < layerCount; l++) {
+            if (!layerVisiblePredicate.test(l)) blending.opacity()[l] = 0;
+        }
+        return blending;
+    }
+
+    /** Drops the cached composites of the inactive layers; call after changing any layer but the active one. */
+    void layersChanged() {
+        compositeStale = true;
+    }
+
+    // Renders all layers into frameImage, recompositing the inactive layers only when they may have changed.
+    // Layers above the active one are cached only while they all blend normally, since other modes depend on
+    // what lies under them.
+    private void compositeFrame() {
+        int active = activeLayer();
+        PixelOps.Blending blending = blending();
+        int size = rows * columns;
+        if (frameImage == null) {
+            frameImage = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_ARGB);
+            belowComposite = new int[size];
+            aboveComposite = new int[size];
+        }
+        boolean aboveCached = blending.isNormal(active + 1, layerCount);
+        if (compositeStale || active != compositeActive || !blending.sameAs(compositeBlending)) {
+            for (int r = 0, i = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++, i++) {
+                    belowComposite[i] = PixelOps.compositeCell(layers, blending, 0, active, r, c, 0);
+                    if (aboveCached)
+                        aboveComposite[i] = PixelOps.compositeCell(layers, blending, active + 1, layerCount, r, c, 0);
+                }
+            }
+            compositeActive = active;
+            compositeBlending = blending;
+            compositeStale = false;
+        }
+        int[] out = PixelOps.argbBuffer(frameImage);
+        int opacity = blending.opacity()[active];
+        BlendMode mode = blending.modes()[active];
+        Color[][] activePixels = opacity > 0 ? layers[active] : null;
+        for (int r = 0, i = 0; r < rows; r++) {
+            Color[] row = activePixels != null ? activePixels[r] : null;
+            for (int c = 0; c < columns; c++, i++) {
+                int px = aboveCached ? aboveComposite[i] : 0;
+                if ((px >>> 24) != 255) {
+                    int under = belowComposite[i];
+                    Color color = row != null ? row[c] : null;
+                    if (color != null) under = PixelOps.blend(color.getRGB(), under, mode, opacity);
+                    px = aboveCached ? PixelOps.over(px, under)
+                            : PixelOps.compositeCell(layers, blending, active + 1, layerCount, r, c, under);
                 }
+                out[i] = px;
             }
         }
-        return img;
+    }
+
+    BufferedImage toImage() {
+        return PixelOps.compositeImage(layers, blending(), columns, rows);
     }
 
     Color[][] getPixelsCopy() {
@@ -648,6 +759,7 @@ class PixelCanvas extends javax.swing.JPanel {
                 layers[l][r] = Arrays.copyOf(data[l][r], columns);
             }
         }
+        layersChanged();
         repaint();
     }
 
@@ -666,6 +778,7 @@ class PixelCanvas extends javax.swing.JPanel {
         for (int r = 0; r < rows; r++) {
             layers[idx][r] = Arrays.copyOf(data[r], columns);
         }
+        layersChanged();
         repaint();
     }
     void swapLayers(int a, int b) {
@@ -676,6 +789,7 @@ class PixelCanvas extends javax.swing.JPanel {
             layers[a][r] = layers[b][r];
             layers[b][r] = tmp;
         }
+        layersChanged();
         repaint();
     }
 
@@ -700,6 +814,7 @@ class PixelCanvas extends javax.swing.JPanel {
                 System.arraycopy(prev[l][r], 0, layers[l][r], 0, columns);
             }
         }
+        layersChanged();
         repaint();
     }
 
@@ -719,6 +834,7 @@ class PixelCanvas extends javax.swing.JPanel {
                 System.arraycopy(next[l][r], 0, layers[l][r], 0, columns);
             }
         }
+        layersChanged();
         repaint();
     }
 
@@ -0,0 +1,391 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Per-pixel colour transform for the map command. A program is a list of
+ * assignments separated by semicolons; assigning r, g, b or a sets that
+ * channel of the result, any other name is a local for later statements.
+ * On the right-hand side r, g, b and a always read the original pixel, so
+ * "r = b; b = r" swaps channels.
+ *
+ * <pre>
+ * r = b; b = r
+ * v = (r + g + b) / 3 > 128 ? 255 : 0; r = v; g = v; b = v
+ * t = y / h; r = lerp(20, 250, t); g = lerp(10, 120, t); b = lerp(60, 30, t)
+ * </pre>
+ *
+ * Inputs are r, g, b, a (0-255, all 0 for an empty cell), x, y, frame, and
+ * the layer size w and h. Operators: + - * / % comparisons && || ! and ?:,
+ * with true as 1 and false as 0. Functions: min max abs clamp floor round
+ * sqrt sin cos lerp. Results are rounded and clamped to 0-255; alpha 0 leaves
+ * the cell empty.
+ *
+ * The source is parsed once into a tree of small evaluator objects with
+ * constants folded, so running it costs a few virtual calls per operator and
+ * pixel; rows run in parallel.
+ */
+final class PixelExpr {
+    private static final String[] INPUTS = { "r", "g", "b", "a", "x", "y", "frame", "w", "h" };
+    private static final int OUT = INPUTS.length; // result channels r, g, b, a follow the inputs
+    private static final int CACHE_BITS = 10;
+
+    interface Node {
+        double eval(double[] v);
+    }
+
+    private record Const(double value) implements Node {
+        public double eval(double[] v) {
+            return value;
+        }
+    }
+
+    private final String source;
+    private final int[] targets;
+    private final Node[] values;
+    private final int slots;
+
+    private PixelExpr(String source, int[] targets, Node[] values, int slots) {
+        this.source = source;
+        this.targets = targets;
+        this.values = values;
+        this.slots = slots;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /** Parses and compiles a program; IllegalArgumentException names the problem and its position. */
+    static PixelExpr compile(String source) {
+        return new Parser(source).program();
+    }
+
+    /** Transforms every cell of the layer in place, rows in parallel. */
+    void apply(Color[][] layer, int frame) {
+        if (layer == null || layer.length == 0)
+            return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.MAP, layer);
+        int rows = layer.length;
+        int cols = layer[0].length;
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            double[] v = new double[slots];
+            // rows repeat colours a lot; share Color objects like PixelOps.readArgb does
+            int[] keys = new int[1 << CACHE_BITS];
+            Color[] cache = new Color[1 << CACHE_BITS];
+            v[5] = y;
+            v[6] = frame;
+            v[7] = cols;
+            v[8] = rows;
+            Color[] row = layer[y];
+            for (int x = 0; x < cols; x++) {
+                Color c = row[x];
+                int in = c == null ? 0 : c.getRGB();
+                v[0] = v[OUT] = (in >> 16) & 0xFF;
+                v[1] = v[OUT + 1] = (in >> 8) & 0xFF;
+                v[2] = v[OUT + 2] = in & 0xFF;
+                v[3] = v[OUT + 3] = in >>> 24;
+                v[4] = x;
+                for (int i = 0; i < values.length; i++) {
+                    v[targets[i]] = values[i].eval(v);
+                }
+                int alpha = channel(v[OUT + 3]);
+                if (alpha == 0) {
+                    row[x] = null;
+                    continue;
+                }
+                int out = alpha << 24 | channel(v[OUT]) << 16 | channel(v[OUT + 1]) << 8 | channel(v[OUT + 2]);
+                if (out == in) {
+                    continue;
+                }
+                int slot = (out * 0x9E3779B9) >>> (32 - CACHE_BITS);
+                Color cc = cache[slot];
+                if (cc == null || keys[slot] != out) {
+                    cc = new Color(out, true);
+                    cache[slot] = cc;
+                    keys[slot] = out;
+                }
+                row[x] = cc;
+            }
+        });
+        EditorEvents.finish(EditorEvents.Op.MAP, event, start);
+    }
+
+    private static int channel(double value) {
+        if (!(value > 0))
+            return 0; // also NaN, e.g. from 0/0
+        return value >= 255 ? 255 : (int) Math.round(value);
+    }
+
+    // Recursive descent over the source text; each rule returns the compiled node
+    private static final class Parser {
+        private final String src;
+        private final Map<String, Integer> names = new HashMap<>();
+        private int pos;
+
+        Parser(String src) {
+            this.src = src;
+            for (int i = 0; i < INPUTS.length; i++) {
+                names.put(INPUTS[i], i);
+            }
+        }
+
+        PixelExpr program() {
+            List<Integer> targets = new ArrayList<>();
+            List<Node> values = new ArrayList<>();
+            int next = OUT + 4;
+            Map<String, Integer> locals = new HashMap<>();
+            do {
+                skipSpace();
+                if (pos == src.length())
+                    break;
+                int at = pos;
+                String name = identifier();
+                if (name == null)
+                    throw error("Expected an assignment", at);
+                if (!accept("="))
+                    throw error("Expected = after " + name, pos);
+                Node value = expression(locals);
+                int channel = "rgba".indexOf(name.length() == 1 ? name.charAt(0) : '?');
+                int target;
+                if (channel >= 0) {
+                    target = OUT + channel;
+                } else if (names.containsKey(name)) {
+                    throw error(name + " is read-only", at);
+                } else {
+                    Integer slot = locals.get(name);
+                    target = slot != null ? slot : next++;
+                    locals.put(name, target);
+                }
+                targets.add(target);
+                values.add(value);
+                skipSpace();
+            } while (accept(";"));
+            skipSpace();
+            if (pos < src.length())
+                throw error("Unexpected '" + src.charAt(pos) + "'", pos);
+            if (values.isEmpty())
+                throw error("Nothing to do; assign r, g, b or a", 0);
+            return new PixelExpr(src.trim(), targets.stream().mapToInt(Integer::intValue).toArray(),
+                    values.toArray(new Node[0]), next);
+        }
+
+        private Node expression(Map<String, Integer> locals) {
+            Node cond = or(locals);
+            if (!accept("?"))
+                return cond;
+            Node yes = expression(locals);
+            expect(":");
+            Node no = expression(locals);
+            if (cond instanceof Const c)
+                return c.value() != 0 ? yes : no;
+            return v -> cond.eval(v) != 0 ? yes.eval(v) : no.eval(v);
+        }
+
+        private Node or(Map<String, Integer> locals) {
+            Node left = and(locals);
+            while (accept("||")) {
+                Node l = left;
+                Node r = and(locals);
+                left = fold(v -> l.eval(v) != 0 || r.eval(v) != 0 ? 1 : 0, l, r);
+            }
+            return left;
+        }
+
+        private Node and(Map<String, Integer> locals) {
+            Node left = comparison(locals);
+            while (accept("&&")) {
+                Node l = left;
+                Node r = comparison(locals);
+                left = fold(v -> l.eval(v) != 0 && r.eval(v) != 0 ? 1 : 0, l, r);
+            }
+            return left;
+        }
+
+        private Node comparison(Map<String, Integer> locals) {
+            Node l = additive(locals);
+            for (String op : new String[] { "<=", ">=", "==", "!=", "<", ">" }) {
+                if (accept(op)) {
+                    Node r = additive(locals);
+                    Node node = switch (op) {
+                        case "<=" -> v -> l.eval(v) <= r.eval(v) ? 1 : 0;
+                        case ">=" -> v -> l.eval(v) >= r.eval(v) ? 1 : 0;
+                        case "==" -> v -> l.eval(v) == r.eval(v) ? 1 : 0;
+                        case "!=" -> v -> l.eval(v) != r.eval(v) ? 1 : 0;
+                        case "<" -> v -> l.eval(v) < r.eval(v) ? 1 : 0;
+                        default -> v -> l.eval(v) > r.eval(v) ? 1 : 0;
+                    };
+                    return fold(node, l, r);
+                }
+            }
+            return l;
+        }
+
+        private Node additive(Map<String, Integer> locals) {
+            Node left = multiplicative(locals);
+            while (true) {
+                Node l = left;
+                if (accept("+")) {
+                    Node r = multiplicative(locals);
+                    left = fold(v -> l.eval(v) + r.eval(v), l, r);
+                } else if (accept("-")) {
+                    Node r = multiplicative(locals);
+                    left = fold(v -> l.eval(v) - r.eval(v), l, r);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node multiplicative(Map<String, Integer> locals) {
+            Node left = unary(locals);
+            while (true) {
+                Node l = left;
+                if (accept("*")) {
+                    Node r = unary(locals);
+                    left = fold(v -> l.eval(v) * r.eval(v), l, r);
+                } else if (accept("/")) {
+                    Node r = unary(locals);
+                    left = fold(v -> l.eval(v) / r.eval(v), l, r);
+                } else if (accept("%")) {
+                    Node r = unary(locals);
+                    left = fold(v -> l.eval(v) % r.eval(v), l, r);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node unary(Map<String, Integer> locals) {
+            if (accept("-")) {
+                Node n = unary(locals);
+                return fold(v -> -n.eval(v), n);
+            }
+            if (accept("!")) {
+                Node n = unary(locals);
+                return fold(v -> n.eval(v) == 0 ? 1 : 0, n);
+            }
+            return primary(locals);
+        }
+
+        private Node primary(Map<String, Integer> locals) {
+            skipSpace();
+            int at = pos;
+            if (accept("(")) {
+                Node inner = expression(locals);
+                expect(")");
+                return inner;
+            }
+            if (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) {
+                while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.'))
+                    pos++;
+                try {
+                    return new Const(Double.parseDouble(src.substring(at, pos)));
+                } catch (NumberFormatException ex) {
+                    throw error("Bad number", at);
+                }
+            }
+            String name = identifier();
+            if (name == null)
+                throw error(pos < src.length() ? "Unexpected '" + src.charAt(pos) + "'" : "Unexpected end", pos);
+            if (accept("("))
+                return call(name, at, locals);
+            Integer slot = locals.containsKey(name) ? locals.get(name) : names.get(name);
+            if (slot == null)
+                throw error("Unknown name " + name, at);
+            int s = slot;
+            return v -> v[s];
+        }
+
+        private Node call(String name, int at, Map<String, Integer> locals) {
+            List<Node> args = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    args.add(expression(locals));
+                } while (accept(","));
+                expect(")");
+            }
+            int arity = switch (name) {
+                case "abs", "floor", "round", "sqrt", "sin", "cos" -> 1;
+                case "min", "max" -> 2;
+                case "clamp", "lerp" -> 3;
+                default -> throw error("Unknown function " + name, at);
+            };
+            if (args.size() != arity)
+                throw error(name + " takes " + arity + " argument" + (arity == 1 ? "" : "s"), at);
+            Node a = args.get(0);
+            Node b = arity > 1 ? args.get(1) : null;
+            Node c = arity > 2 ? args.get(2) : null;
+            Node node = switch (name) {
+                case "abs" -> v -> Math.abs(a.eval(v));
+                case "floor" -> v -> Math.floor(a.eval(v));
+                case "round" -> v -> Math.rint(a.eval(v));
+                case "sqrt" -> v -> Math.sqrt(a.eval(v));
+                case "sin" -> v -> Math.sin(a.eval(v));
+                case "cos" -> v -> Math.cos(a.eval(v));
+                case "min" -> v -> Math.min(a.eval(v), b.eval(v));
+                case "max" -> v -> Math.max(a.eval(v), b.eval(v));
+                case "clamp" -> v -> Math.max(b.eval(v), Math.min(c.eval(v), a.eval(v)));
+                default -> v -> {
+                    double from = a.eval(v);
+                    return from + (b.eval(v) - from) * c.eval(v);
+                };
+            };
+            return fold(node, args.toArray(new Node[0]));
+        }
+
+        // evaluates nodes whose inputs are all constants once, at compile time
+        private static Node fold(Node node, Node... inputs) {
+            for (Node input : inputs) {
+                if (!(input instanceof Const))
+                    return node;
+            }
+            return new Const(node.eval(null));
+        }
+
+        private String identifier() {
+            skipSpace();
+            int start = pos;
+            if (pos < src.length() && Character.isLetter(src.charAt(pos))) {
+                while (pos < src.length() && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '_'))
+                    pos++;
+                return src.substring(start, pos);
+            }
+            return null;
+        }
+
+        private boolean accept(String token) {
+            skipSpace();
+            if (!src.startsWith(token, pos))
+                return false;
+            // a single < > = or ! must not swallow the start of a two-character operator
+            if (token.length() == 1 && "<>=!".indexOf(token.charAt(0)) >= 0 && peek(1, '='))
+                return false;
+            pos += token.length();
+            return true;
+        }
+
+        private boolean peek(int offset, char c) {
+            return pos + offset < src.length() && src.charAt(pos + offset) == c;
+        }
+
+        private void expect(String token) {
+            if (!accept(token))
+                throw error("Expected " + token, pos);
+        }
+
+        private void skipSpace() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos)))
+                pos++;
+        }
+
+        private IllegalArgumentException error(String message, int at) {
+            return new IllegalArgumentException(message + " at column " + (at + 1));
+        }
+    }
+}
@@ -1,5 +1,10 @@
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 
 /**
  * Pixel-level operations that mutate a single layer in-place.
@@ -7,6 +12,8 @@ import java.util.ArrayDeque;
  */
 class PixelOps {
     private static final int DITHER_LEVELS = 4;
+    private static final int COLOR_CACHE_BITS = 12;
+    private static final int COLOR_CACHE_SIZE = 1 << COLOR_CACHE_BITS;
     static final class MoveState {
         final Color[][] snapshot;
         final int startCol;
@@ -35,6 +42,8 @@ class PixelOps {
 
     static void flipHorizontal(Color[][] layer) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.FLIP_HORIZONTAL, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         for (int r = 0; r < rows; r++) {
@@ -45,10 +54,13 @@ class PixelOps {
                 layer[r][mirror] = tmp;
             }
         }
+        EditorEvents.finish(EditorEvents.Op.FLIP_HORIZONTAL, event, start);
     }
 
     static void flipVertical(Color[][] layer) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.FLIP_VERTICAL, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         for (int c = 0; c < cols; c++) {
@@ -59,6 +71,7 @@ class PixelOps {
                 layer[mirror][c] = tmp;
             }
         }
+        EditorEvents.finish(EditorEvents.Op.FLIP_VERTICAL, event, start);
     }
 
     static void floodFill(Color[][] layer, int row, int col, Color replacement) {
@@ -69,6 +82,8 @@ class PixelOps {
         if (col < 0 || col >= cols || row < 0 || row >= rows) return;
         Color target = layer[row][col];
         if (sameColor(target, replacement)) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.FLOOD_FILL, layer);
         boolean[][] visited = new boolean[rows][cols];
         ArrayDeque<int[]> q = new ArrayDeque<>();
         q.add(new int[] { row, col });
@@ -95,10 +110,13 @@ class PixelOps {
                 q.add(new int[] { r + 1, c });
             }
         }
+        EditorEvents.finish(EditorEvents.Op.FLOOD_FILL, event, start);
     }
 
     static void blurGaussian(Color[][] layer, int radius) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.BLUR_GAUSSIAN, layer);
         int r = Math.max(1, radius);
         int rows = layer.length;
         int cols = layer[0].length;
@@ -144,10 +162,13 @@ class PixelOps {
         for (int row = 0; row < rows; row++) {
             System.arraycopy(next[row], 0, layer[row], 0, cols);
         }
+        EditorEvents.finish(EditorEvents.Op.BLUR_GAUSSIAN, event, start);
     }
 
     static void blurMotion(Color[][] layer, double angleDegrees, int amount) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.BLUR_MOTION, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         int len = Math.max(1, amount);
@@ -185,10 +206,13 @@ class PixelOps {
         for (int r = 0; r < rows; r++) {
             System.arraycopy(out[r], 0, layer[r], 0, cols);
         }
+        EditorEvents.finish(EditorEvents.Op.BLUR_MOTION, event, start);
     }
 
     static void ditherFloydSteinberg(Color[][] layer, Color background) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.DITHER_FLOYD_STEINBERG, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         double[][] errR = new double[rows][cols];
@@ -215,10 +239,13 @@ class PixelOps {
                 diffuse(errB, y, x, db, rows, cols);
             }
         }
+        EditorEvents.finish(EditorEvents.Op.DITHER_FLOYD_STEINBERG, event, start);
     }
 
     static void ditherOrdered(Color[][] layer, Color background) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.DITHER_ORDERED, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         int[][] bayer4 = {
@@ -241,6 +268,7 @@ class PixelOps {
                 layer[y][x] = new Color(r, g, b);
             }
         }
+        EditorEvents.finish(EditorEvents.Op.DITHER_ORDERED, event, start);
     }
 
     private static boolean sameColor(Color a, Color b) {
@@ -281,6 +309,8 @@ class PixelOps {
 
     static void blurBrush(Color[][] layer, int row, int col, int radius) {
         if (layer == null || layer.length == 0) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.BLUR_BRUSH, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         int r = Math.max(1, radius);
@@ -331,6 +361,7 @@ class PixelOps {
                 }
             }
         }
+        EditorEvents.finish(EditorEvents.Op.BLUR_BRUSH, event, start);
     }
 
     static MoveState beginMove(Color[][] layer, int startCol, int startRow) {
@@ -344,6 +375,8 @@ class PixelOps {
 
     static void applyMove(Color[][] layer, MoveState state, int col, int row) {
         if (layer == null || state == null || state.snapshot == null) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.APPLY_MOVE, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         int dx = col - state.startCol;
@@ -362,6 +395,7 @@ class PixelOps {
                 }
             }
         }
+        EditorEvents.finish(EditorEvents.Op.APPLY_MOVE, event, start);
     }
 
     static RotateState beginRotate(Color[][] layer, int centerCol, int centerRow, double startAngle) {
@@ -375,6 +409,8 @@ class PixelOps {
 
     static void applyRotate(Color[][] layer, RotateState state, int col, int row) {
         if (layer == null || state == null || state.snapshot == null) return;
+        long start = System.nanoTime();
+        EditorEvents.PixelOp event = EditorEvents.pixelOp(EditorEvents.Op.APPLY_ROTATE, layer);
         int rows = layer.length;
         int cols = layer[0].length;
         double currentAngle = Math.atan2(row - state.centerRow, col - state.centerCol);
@@ -399,5 +435,224 @@ class PixelOps {
                 }
             }
         }
+        EditorEvents.finish(EditorEvents.Op.APPLY_ROTATE, event, start);
+    }
+
+    // Bulk raster access for import/export: packed ARGB arrays instead of per-pixel getRGB/setRGB
+
+    /** Returns the backing pixel array of a TYPE_INT_ARGB image; writes go straight to the image. */
+    static int[] argbBuffer(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /** Returns the image's pixels as packed ARGB, row-major, without copying when it is already INT_ARGB. */
+    static int[] argbPixels(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_ARGB && img.getRaster().getDataBuffer() instanceof DataBufferInt db
+                && img.getRaster().getParent() == null) {
+            return db.getData();
+        }
+        // a native blit converts any source layout far faster than getRGB's per-pixel colour model calls
+        BufferedImage argb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = argb.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(img, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return argbBuffer(argb);
+    }
+
+    /** Fills a layer from packed ARGB; fully transparent pixels become empty cells and repeated colours share a Color. */
+    static void readArgb(int[] argb, Color[][] layer) {
+        readArgb(argb, 0, layer.length == 0 ? 0 : layer[0].length, layer);
+    }
+
+    /** Same as {@link #readArgb(int[], Color[][])} for a sub-rectangle starting at {@code offset} in a wider image. */
+    static void readArgb(int[] argb, int offset, int stride, Color[][] layer) {
+        // direct-mapped cache instead of a map: no boxing, and pixel art rarely has enough colours to collide much
+        int[] keys = new int[COLOR_CACHE_SIZE];
+        Color[] colors = new Color[COLOR_CACHE_SIZE];
+        for (int r = 0; r < layer.length; r++) {
+            Color[] row = layer[r];
+            int i = offset + r * stride;
+            for (int c = 0; c < row.length; c++) {
+                int v = argb[i++];
+                if ((v >>> 24) == 0) {
+                    row[c] = null;
+                    continue;
+                }
+                int slot = (v * 0x9E3779B9) >>> (32 - COLOR_CACHE_BITS);
+                Color cc = colors[slot];
+                if (cc == null || keys[slot] != v) {
+                    cc = new Color(v, true);
+                    colors[slot] = cc;
+                    keys[slot] = v;
+                }
+                row[c] = cc;
+            }
+        }
+    }
+
+    /**
+     * Blend mode and opacity (0-255) of each layer, in layer order. Hidden
+     * layers have opacity 0. Canvas, colour picker and exporters all composite
+     * through compositeCell with one of these, so they show the same pixels.
+     */
+    record Blending(BlendMode[] modes, int[] opacity) {
+        /** Every layer drawn normally at full opacity. */
+        static Blending normal(int layers) {
+            BlendMode[] modes = new BlendMode[layers];
+            int[] opacity = new int[layers];
+            Arrays.fill(modes, BlendMode.NORMAL);
+            Arrays.fill(opacity, 255);
+            return new Blending(modes, opacity);
+        }
+
+        int size() {
+            return opacity.length;
+        }
+
+        /** True when layers [from, to) only use NORMAL, so their composite can be cached and laid over anything. */
+        boolean isNormal(int from, int to) {
+            for (int l = from; l < to; l++) {
+                if (opacity[l] > 0 && modes[l] != BlendMode.NORMAL)
+                    return false;
+            }
+            return true;
+        }
+
+        boolean sameAs(Blending other) {
+            return other != null && Arrays.equals(modes, other.modes) && Arrays.equals(opacity, other.opacity);
+        }
+    }
+
+    /** Straight-alpha ARGB source-over: top drawn on bottom. An opaque top is returned as is. */
+    static int over(int top, int bottom) {
+        int ta = top >>> 24;
+        if (ta == 255)
+            return top;
+        int ba = bottom >>> 24;
+        if (ta == 0)
+            return ba == 0 ? 0 : bottom;
+        if (ba == 0)
+            return top;
+        // channel weights scaled by 255, so the blend stays in integers
+        int tw = ta * 255;
+        int bw = ba * (255 - ta);
+        int aw = tw + bw;
+        int half = aw >> 1;
+        int r = (((top >> 16) & 0xFF) * tw + ((bottom >> 16) & 0xFF) * bw + half) / aw;
+        int g = (((top >> 8) & 0xFF) * tw + ((bottom >> 8) & 0xFF) * bw + half) / aw;
+        int b = ((top & 0xFF) * tw + (bottom & 0xFF) * bw + half) / aw;
+        return (aw + 127) / 255 << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Draws top on bottom with a blend mode at a layer opacity (0-255),
+     * straight-alpha ARGB in and out. Where the bottom is covered the mode mixes
+     * the colours (separable blending as in CSS), then coverage composites as
+     * source-over.
+     */
+    static int blend(int top, int bottom, BlendMode mode, int opacity) {
+        int ta = top >>> 24;
+        if (opacity < 255)
+            ta = (ta * opacity + 127) / 255;
+        int ba = bottom >>> 24;
+        if (ta == 0)
+            return ba == 0 ? 0 : bottom;
+        if (mode == BlendMode.NORMAL || ba == 0)
+            return over(ta << 24 | (top & 0xFFFFFF), bottom);
+        int r = mix(mode, (top >> 16) & 0xFF, (bottom >> 16) & 0xFF, ba);
+        int g = mix(mode, (top >> 8) & 0xFF, (bottom >> 8) & 0xFF, ba);
+        int b = mix(mode, top & 0xFF, bottom & 0xFF, ba);
+        return over(ta << 24 | r << 16 | g << 8 | b, bottom);
+    }
+
+    // One channel of the mode's colour, faded back toward the top colour where the bottom is translucent
+    private static int mix(BlendMode mode, int s, int d, int ba) {
+        int m = switch (mode) {
+            case MULTIPLY -> (s * d + 127) / 255;
+            case SCREEN -> s + d - (s * d + 127) / 255;
+            case ADD -> Math.min(255, s + d);
+            case OVERLAY -> d < 128 ? (2 * s * d + 127) / 255 : 255 - (2 * (255 - s) * (255 - d) + 127) / 255;
+            case NORMAL -> s;
+        };
+        return ba == 255 ? m : (s * (255 - ba) + m * ba + 127) / 255;
+    }
+
+    /**
+     * Composites one cell of layers [from, to) onto base, bottom to top. Nothing
+     * under the topmost opaque cell of a normal, fully opaque layer can show, so
+     * compositing starts there. Null layers are skipped.
+     */
+    static int compositeCell(Color[][][] layers, Blending blending, int from, int to, int row, int col, int base) {
+        BlendMode[] modes = blending.modes();
+        int[] opacity = blending.opacity();
+        int start = from;
+        for (int l = to - 1; l >= from; l--) {
+            if (layers[l] == null || opacity[l] != 255 || modes[l] != BlendMode.NORMAL)
+                continue;
+            Color c = layers[l][row][col];
+            if (c != null && c.getAlpha() == 255) {
+                start = l;
+                break;
+            }
+        }
+        int out = base;
+        for (int l = start; l < to; l++) {
+            if (layers[l] == null || opacity[l] == 0)
+                continue;
+            Color c = layers[l][row][col];
+            if (c != null)
+                out = blend(c.getRGB(), out, modes[l], opacity[l]);
+        }
+        return out;
+    }
+
+    /** A new grid with top blended onto bottom; cells that need no blending keep their Color. */
+    static Color[][] mergeOver(Color[][] top, Color[][] bottom, BlendMode mode, int opacity) {
+        Color[][] out = new Color[bottom.length][];
+        for (int r = 0; r < bottom.length; r++) {
+            Color[] t = top[r];
+            Color[] b = bottom[r];
+            Color[] row = Arrays.copyOf(b, b.length);
+            for (int c = 0; c < row.length; c++) {
+                Color tc = t[c];
+                if (tc == null || tc.getAlpha() == 0 || opacity == 0)
+                    continue;
+                Color bc = b[c];
+                boolean covers = tc.getAlpha() == 255 && opacity == 255 && mode == BlendMode.NORMAL;
+                if (covers || bc == null && opacity == 255) {
+                    row[c] = tc;
+                } else {
+                    int argb = blend(tc.getRGB(), bc == null ? 0 : bc.getRGB(), mode, opacity);
+                    row[c] = (argb >>> 24) == 0 ? null : new Color(argb, true);
+                }
+            }
+            out[r] = row;
+        }
+        return out;
+    }
+
+    /** Composites the layers into {@code out} as packed ARGB; empty pixels become 0. Null layers are skipped. */
+    static void compositeArgb(Color[][][] layers, Blending blending, int[] out, int cols, int rows) {
+        for (int r = 0, i = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++, i++) {
+                out[i] = compositeCell(layers, blending, 0, layers.length, r, c, 0);
+            }
+        }
+    }
+
+    /** Composites layers into a new TYPE_INT_ARGB image. */
+    static BufferedImage compositeImage(Color[][][] layers, Blending blending, int cols, int rows) {
+        BufferedImage img = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_ARGB);
+        compositeArgb(layers, blending, argbBuffer(img), cols, rows);
+        return img;
+    }
+
+    /** Composites layers, all shown normally, into a new TYPE_INT_ARGB image. */
+    static BufferedImage compositeImage(Color[][][] layers, int cols, int rows) {
+        return compositeImage(layers, Blending.normal(layers.length), cols, rows);
     }
 }
@@ -0,0 +1,697 @@
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Chunked project container. Every frame is stored as its own deflated chunk of
+ * packed ARGB ints; a trailing index records metadata and chunk offsets. Opening
+ * reads only the index and hands out lazy frames that read and decode their chunk
+ * on first use, keeping only a bounded number of decoded frames in memory. The
+ * file stays open, but not mapped, until close, so a save can still replace it.
+ * An interrupt during a read closes the channel; it is then reopened, provided
+ * the file still holds this archive's index.
+ *
+ * Layout: MAGIC, VERSION, chunk*, index, trailer(indexOffset, indexLength, MAGIC).
+ * Saves back to the same file append changed chunks plus a new index and trailer,
+ * so older chunks and indexes become dead space until the next compaction.
+ * A pixel value of 0 stands for an empty (null) cell. The index ends with each
+ * layer's opacity and blend mode; indexes written before those existed stop
+ * short of them and load as normal layers at full opacity.
+ */
+class ProjectArchive implements Closeable {
+    static final int MAGIC = 0x50585052; // "PXPR"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 16;
+    private static final long CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private final Path path;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+    // the opener's hold plus one per background job still reading frames; the file closes at zero
+    private int holds = 1;
+    private final Object fileKey;
+    private final long size;
+    private final long[] trailer;
+    private final PixelArtModel.ProjectData meta;
+    private final List<List<PixelArtModel.FrameData>> frames;
+    private final long[] chunkOffsets;
+    private final int[] chunkLengths;
+    private final FrameCache cache;
+    private final int indexLength;
+    private int writtenFrames;
+
+    private ProjectArchive(Path path, FileChannel channel, Object fileKey, long size, long[] trailer,
+                           PixelArtModel.ProjectData meta, List<List<long[]>> chunks) {
+        this.path = path;
+        this.channel = channel;
+        this.fileKey = fileKey;
+        this.size = size;
+        this.trailer = trailer;
+        this.meta = meta;
+        this.indexLength = (int) trailer[1];
+        int total = 0;
+        for (List<long[]> layer : chunks) {
+            total += layer.size();
+        }
+        chunkOffsets = new long[total];
+        chunkLengths = new int[total];
+        frames = new ArrayList<>();
+        int id = 0;
+        for (List<long[]> layer : chunks) {
+            List<PixelArtModel.FrameData> lazy = new ArrayList<>();
+            for (long[] chunk : layer) {
+                chunkOffsets[id] = chunk[0];
+                chunkLengths[id] = (int) chunk[1];
+                lazy.add(new PixelArtModel.FrameData(this, id));
+                id++;
+            }
+            frames.add(lazy);
+        }
+        long frameBytes = Math.max(1L, (long) meta.cols * meta.rows * 4);
+        cache = new FrameCache((int) Math.max(4, Math.min(4096, CACHE_BUDGET_BYTES / frameBytes)));
+    }
+
+    static boolean isArchive(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] head = in.readNBytes(4);
+            return head.length == 4 && ByteBuffer.wrap(head).getInt() == MAGIC;
+        }
+    }
+
+    static ProjectArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException("Truncated project file");
+            }
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a project archive");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported project version " + version);
+            }
+            long[] trailer = findTrailer(channel, size);
+            if (trailer == null) {
+                throw new IOException("Corrupt project index");
+            }
+            int indexLength = (int) trailer[1];
+            DataInputStream in = new DataInputStream(new ByteBufferInput(read(channel, trailer[0], indexLength)));
+            PixelArtModel.ProjectData meta = new PixelArtModel.ProjectData();
+            List<List<long[]>> chunks = readIndex(in, meta);
+            return new ProjectArchive(path, channel, fileKey, size, trailer, meta, chunks);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Adds a hold on every archive the frames decode from, so a job reading them
+     * off the EDT keeps them open even if the editor lets go meanwhile. Pass the
+     * result to releaseAll once the job is done.
+     */
+    static Set<ProjectArchive> retainAll(List<PixelArtModel.FrameData>[] layerFrames) {
+        Set<ProjectArchive> held = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<PixelArtModel.FrameData> frames : layerFrames) {
+            for (PixelArtModel.FrameData frame : frames) {
+                ProjectArchive source = frame.getSource();
+                if (source != null && !held.contains(source) && source.retain()) {
+                    held.add(source);
+                }
+            }
+        }
+        return held;
+    }
+
+    static void releaseAll(Set<ProjectArchive> held) {
+        for (ProjectArchive archive : held) {
+            archive.release();
+        }
+    }
+
+    private synchronized boolean retain() {
+        if (holds == 0) {
+            return false;
+        }
+        holds++;
+        return true;
+    }
+
+    /** Drops one hold and closes the file once no holder is left. */
+    void release() {
+        synchronized (this) {
+            if (holds == 0 || --holds > 0) {
+                return;
+            }
+        }
+        try {
+            close();
+        } catch (IOException ex) {
+            // nothing left to read from it either way
+        }
+    }
+
+    /** Closes the file; frames of this archive that are not cached can no longer decode. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Saves the project to {@code path}. When the file is the archive the frames were
+     * opened from, only frames not already stored in it are appended, followed by a
+     * fresh index; the file is compacted once dead chunks outweigh live ones.
+     * Returns the reopened archive so callers can rebind their frames to it.
+     */
+    static ProjectArchive save(Path path, PixelArtModel.ProjectData meta, List<PixelArtModel.FrameData>[] layerFrames)
+            throws IOException {
+        ProjectArchive base = findAppendTarget(path, layerFrames);
+        int written;
+        if (base == null) {
+            written = write(path, meta, layerFrames);
+        } else {
+            written = append(base, meta, layerFrames);
+        }
+        ProjectArchive saved = open(path);
+        if (base != null && saved.deadBytes() > saved.liveBytes()) {
+            try (ProjectArchive appended = saved) {
+                write(path, meta, appended.asFrameArray());
+            }
+            saved = open(path);
+        }
+        saved.writtenFrames = written;
+        int id = 0;
+        for (List<PixelArtModel.FrameData> lf : layerFrames) {
+            for (PixelArtModel.FrameData fd : lf) {
+                if (!fd.isArchived()) {
+                    saved.prime(id, fd.getLayer());
+                }
+                id++;
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Writes a complete, compacted archive via a temp file and an atomic rename.
+     * Archives still open on the old file keep reading it, since FileChannel
+     * opens files with delete sharing on Windows too.
+     */
+    static int write(Path path, PixelArtModel.ProjectData meta, List<PixelArtModel.FrameData>[] layerFrames)
+            throws IOException {
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        int written;
+        try {
+            try (OutputStream raw = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new java.io.BufferedOutputStream(raw, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                written = writeBody(out, HEADER_BYTES, null, meta, layerFrames);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return written;
+    }
+
+    private static int append(ProjectArchive base, PixelArtModel.ProjectData meta,
+                              List<PixelArtModel.FrameData>[] layerFrames) throws IOException {
+        try (FileChannel channel = FileChannel.open(base.path, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            channel.position(end);
+            DataOutputStream out = new DataOutputStream(
+                    new java.io.BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            int written = writeBody(out, end, base, meta, layerFrames);
+            out.flush();
+            channel.force(true);
+            return written;
+        }
+    }
+
+    /**
+     * Writes chunks for every frame not stored in {@code reuse}, then the index and trailer.
+     * Returns the number of frames whose chunks were written.
+     */
+    private static int writeBody(DataOutputStream out, long offset, ProjectArchive reuse,
+                                 PixelArtModel.ProjectData meta, List<PixelArtModel.FrameData>[] layerFrames)
+            throws IOException {
+        List<List<long[]>> chunks = new ArrayList<>();
+        int written = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (List<PixelArtModel.FrameData> lf : layerFrames) {
+                List<long[]> layerChunks = new ArrayList<>();
+                for (PixelArtModel.FrameData fd : lf) {
+                    if (reuse != null && fd.getSource() == reuse) {
+                        layerChunks.add(new long[] { reuse.chunkOffsets[fd.getChunk()], reuse.chunkLengths[fd.getChunk()] });
+                        continue;
+                    }
+                    byte[] packed = fd.isArchived()
+                            ? fd.getSource().rawChunk(fd.getChunk())
+                            : encode(fd.getLayer(), meta.rows, meta.cols, deflater);
+                    out.write(packed);
+                    layerChunks.add(new long[] { offset, packed.length });
+                    offset += packed.length;
+                    written++;
+                }
+                chunks.add(layerChunks);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] index = writeIndex(meta, chunks);
+        out.write(index);
+        out.writeLong(offset);
+        out.writeInt(index.length);
+        out.writeInt(MAGIC);
+        return written;
+    }
+
+    private static ProjectArchive findAppendTarget(Path path, List<PixelArtModel.FrameData>[] layerFrames)
+            throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        for (List<PixelArtModel.FrameData> lf : layerFrames) {
+            for (PixelArtModel.FrameData fd : lf) {
+                ProjectArchive source = fd.getSource();
+                if (source != null && Files.isSameFile(source.path, path)
+                        && Files.size(path) == source.size) {
+                    return source;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Locates the last complete trailer and returns its index offset and length.
+     * Normally it ends the file; if an append was interrupted the tail is scanned
+     * backwards for the previous index.
+     */
+    private static long[] findTrailer(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+        long[] found = trailerAt(last, 0, size - TRAILER_BYTES);
+        if (found != null) {
+            return found;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt project index");
+        }
+        ByteBuffer all = read(channel, 0, (int) size);
+        for (int pos = all.limit() - TRAILER_BYTES - 1; pos >= HEADER_BYTES; pos--) {
+            found = trailerAt(all, pos, pos);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private static long[] trailerAt(ByteBuffer buf, int at, long filePos) {
+        if (buf.getInt(at + 12) != MAGIC) {
+            return null;
+        }
+        long indexOffset = buf.getLong(at);
+        int indexLength = buf.getInt(at + 8);
+        if (indexOffset >= HEADER_BYTES && indexLength > 0 && indexOffset + indexLength == filePos) {
+            return new long[] { indexOffset, indexLength };
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Truncated project file");
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * Reads from this archive's file. Channels close for good when a thread reading
+     * them is interrupted, so a read that finds the channel closed by anything other
+     * than close() reopens it and tries again, with the interrupt held back meanwhile.
+     */
+    private ByteBuffer readFile(long position, int length) throws IOException {
+        boolean interrupted = false;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                FileChannel current = channel;
+                try {
+                    return read(current, position, length);
+                } catch (ClosedChannelException ex) {
+                    if (closed || attempt == 3) {
+                        throw ex;
+                    }
+                    interrupted |= Thread.interrupted();
+                    reopen(current);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void reopen(FileChannel stale) throws IOException {
+        if (channel != stale || closed) {
+            return; // another reader already reopened it
+        }
+        FileChannel fresh = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            // appends keep this archive's bytes in place; a compaction or another save replaces the file
+            long at = trailer[0] + trailer[1];
+            boolean same = Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey())
+                    && fresh.size() >= at + TRAILER_BYTES;
+            long[] found = same ? trailerAt(read(fresh, at, TRAILER_BYTES), 0, at) : null;
+            if (found == null || found[0] != trailer[0] || found[1] != trailer[1]) {
+                throw new IOException("Project file was replaced on disk: " + path);
+            }
+        } catch (IOException | RuntimeException ex) {
+            fresh.close();
+            throw ex;
+        }
+        channel = fresh;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    PixelArtModel.ProjectData getMetadata() {
+        return meta;
+    }
+
+    List<List<PixelArtModel.FrameData>> getFrames() {
+        return frames;
+    }
+
+    Color[][] decode(int chunk) {
+        synchronized (cache) {
+            Color[][] cached = cache.get(chunk);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Color[][] layer;
+        try {
+            layer = inflate(chunk);
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt frame chunk " + chunk, ex);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read frame chunk " + chunk, ex);
+        }
+        synchronized (cache) {
+            cache.put(chunk, layer);
+        }
+        return layer;
+    }
+
+    int getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    long liveBytes() {
+        long live = 0;
+        for (int len : chunkLengths) {
+            live += len;
+        }
+        return live;
+    }
+
+    long deadBytes() {
+        return Math.max(0, size - HEADER_BYTES - TRAILER_BYTES - indexLength - liveBytes());
+    }
+
+    /** Decoded frames held by the cache, for memory accounting. */
+    List<Color[][]> cachedFrames() {
+        synchronized (cache) {
+            return new ArrayList<>(cache.values());
+        }
+    }
+
+    /** Drops every decoded frame; they decode again from the file on next use. */
+    int trimCache() {
+        synchronized (cache) {
+            int dropped = cache.size();
+            cache.clear();
+            return dropped;
+        }
+    }
+
+    void prime(int chunk, Color[][] layer) {
+        if (layer == null) return;
+        synchronized (cache) {
+            cache.put(chunk, layer);
+        }
+    }
+
+    private List<PixelArtModel.FrameData>[] asFrameArray() {
+        return frames.toArray(PixelArtModel.newFrameLists(0));
+    }
+
+    byte[] rawChunk(int chunk) throws IOException {
+        return readFile(chunkOffsets[chunk], chunkLengths[chunk]).array();
+    }
+
+    private Color[][] inflate(int chunk) throws DataFormatException, IOException {
+        int rows = meta.rows;
+        int cols = meta.cols;
+        ByteBuffer src = readFile(chunkOffsets[chunk], chunkLengths[chunk]);
+        byte[] pixels = new byte[rows * cols * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src);
+            int read = 0;
+            while (read < pixels.length && !inflater.finished()) {
+                int n = inflater.inflate(pixels, read, pixels.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != pixels.length) {
+                throw new DataFormatException("Short frame chunk");
+            }
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer argb = ByteBuffer.wrap(pixels);
+        Map<Integer, Color> palette = new HashMap<>();
+        Color[][] layer = new Color[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            Color[] row = layer[r];
+            for (int c = 0; c < cols; c++) {
+                int v = argb.getInt();
+                if (v != 0) {
+                    row[c] = palette.computeIfAbsent(v, k -> new Color(k, true));
+                }
+            }
+        }
+        return layer;
+    }
+
+    private static byte[] encode(Color[][] layer, int rows, int cols, Deflater deflater) {
+        ByteBuffer argb = ByteBuffer.allocate(rows * cols * 4);
+        for (int r = 0; r < rows; r++) {
+            Color[] row = layer != null && r < layer.length ? layer[r] : null;
+            for (int c = 0; c < cols; c++) {
+                Color color = row != null && c < row.length ? row[c] : null;
+                argb.putInt(color == null ? 0 : color.getRGB());
+            }
+        }
+        deflater.reset();
+        deflater.setInput(argb.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, argb.capacity() / 16));
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] writeIndex(PixelArtModel.ProjectData meta, List<List<long[]>> chunks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(meta.cols);
+        out.writeInt(meta.rows);
+        out.writeInt(meta.cellSize);
+        out.writeInt(meta.activeLayer);
+        out.writeInt(meta.brushSize);
+        out.writeInt(meta.red);
+        out.writeInt(meta.green);
+        out.writeInt(meta.blue);
+        out.writeInt(meta.frameRate);
+        out.writeBoolean(meta.viewportBg != null);
+        out.writeInt(meta.viewportBg != null ? meta.viewportBg.getRGB() : 0);
+        out.writeInt(meta.toolBrushSizes != null ? meta.toolBrushSizes.length : -1);
+        if (meta.toolBrushSizes != null) {
+            for (int size : meta.toolBrushSizes) {
+                out.writeInt(size);
+            }
+        }
+        out.writeInt(chunks.size());
+        for (int l = 0; l < chunks.size(); l++) {
+            out.writeUTF(l < meta.layerNames.length && meta.layerNames[l] != null ? meta.layerNames[l] : "L" + (l + 1));
+            out.writeBoolean(l >= meta.layerVisible.length || meta.layerVisible[l]);
+            out.writeBoolean(l >= meta.animatedLayers.length || meta.animatedLayers[l]);
+            out.writeInt(l < meta.currentFrameIndex.length ? meta.currentFrameIndex[l] : 0);
+            List<long[]> layer = chunks.get(l);
+            out.writeInt(layer.size());
+            for (long[] chunk : layer) {
+                out.writeLong(chunk[0]);
+                out.writeInt((int) chunk[1]);
+            }
+        }
+        for (int l = 0; l < chunks.size(); l++) {
+            boolean styled = meta.layerOpacity != null && l < meta.layerOpacity.length;
+            out.writeByte(styled ? meta.layerOpacity[l] : 255);
+            out.writeUTF(meta.layerBlend != null && l < meta.layerBlend.length && meta.layerBlend[l] != null
+                    ? meta.layerBlend[l].name() : BlendMode.NORMAL.name());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<List<long[]>> readIndex(DataInputStream in, PixelArtModel.ProjectData meta) throws IOException {
+        meta.cols = in.readInt();
+        meta.rows = in.readInt();
+        meta.cellSize = in.readInt();
+        meta.activeLayer = in.readInt();
+        meta.brushSize = in.readInt();
+        meta.red = in.readInt();
+        meta.green = in.readInt();
+        meta.blue = in.readInt();
+        meta.frameRate = in.readInt();
+        boolean hasBg = in.readBoolean();
+        int bg = in.readInt();
+        meta.viewportBg = hasBg ? new Color(bg, true) : null;
+        int toolCount = in.readInt();
+        if (toolCount >= 0) {
+            meta.toolBrushSizes = new int[toolCount];
+            for (int i = 0; i < toolCount; i++) {
+                meta.toolBrushSizes[i] = in.readInt();
+            }
+        }
+        int layerCount = in.readInt();
+        if (meta.cols <= 0 || meta.rows <= 0 || layerCount <= 0) {
+            throw new IOException("Corrupt project index");
+        }
+        meta.layerNames = new String[layerCount];
+        meta.layerVisible = new boolean[layerCount];
+        meta.animatedLayers = new boolean[layerCount];
+        meta.currentFrameIndex = new int[layerCount];
+        List<List<long[]>> chunks = new ArrayList<>();
+        for (int l = 0; l < layerCount; l++) {
+            meta.layerNames[l] = in.readUTF();
+            meta.layerVisible[l] = in.readBoolean();
+            meta.animatedLayers[l] = in.readBoolean();
+            meta.currentFrameIndex[l] = in.readInt();
+            int count = in.readInt();
+            List<long[]> layer = new ArrayList<>(count);
+            for (int f = 0; f < count; f++) {
+                long offset = in.readLong();
+                int length = in.readInt();
+                layer.add(new long[] { offset, length });
+            }
+            chunks.add(layer);
+        }
+        if (in.available() > 0) {
+            meta.layerOpacity = new int[layerCount];
+            meta.layerBlend = new BlendMode[layerCount];
+            for (int l = 0; l < layerCount; l++) {
+                meta.layerOpacity[l] = in.readUnsignedByte();
+                try {
+                    meta.layerBlend[l] = BlendMode.valueOf(in.readUTF());
+                } catch (IllegalArgumentException ex) {
+                    meta.layerBlend[l] = BlendMode.NORMAL; // a mode this version does not know
+                }
+            }
+        }
+        return chunks;
+    }
+
+    private static final class FrameCache extends LinkedHashMap<Integer, Color[][]> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        FrameCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Color[][]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class ByteBufferInput extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
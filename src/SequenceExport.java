@@ -0,0 +1,263 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes a numbered image sequence. Frames are composited and encoded on a
+ * pool sized to the CPU count and the encoded bytes are handed to a small I/O
+ * pool, so disk writes overlap with encoding. A permit per in-flight frame
+ * keeps memory bounded on long timelines.
+ *
+ * A manifest beside the output folder records a hash of each frame's
+ * composited pixels; frames whose hash and file are unchanged since the last
+ * export are not encoded again.
+ */
+class SequenceExport {
+    interface Listener {
+        void progress(int done, int total);
+    }
+
+    private static final int IO_THREADS = 4;
+    private static final String MANIFEST_HEADER = "pixel_art sequence manifest 1";
+
+    private final int count;
+    private final IntFunction<BufferedImage> render;
+    private final File outDir;
+    private final String prefix;
+    private final String format;
+    private final int digits;
+    private final int workers;
+    private final File manifest;
+    private final long[] hashes;
+    private final long[] sizes;
+    private final AtomicInteger skipped = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    SequenceExport(int count, IntFunction<BufferedImage> render, File outDir, String prefix, String format) {
+        this(count, render, outDir, prefix, format, new File(outDir.getParentFile(), outDir.getName() + ".manifest"));
+    }
+
+    SequenceExport(int count, IntFunction<BufferedImage> render, File outDir, String prefix, String format,
+            File manifest) {
+        this.count = count;
+        this.render = render;
+        this.outDir = outDir;
+        this.prefix = prefix;
+        this.format = format;
+        this.digits = Math.max(3, String.valueOf(count).length());
+        this.workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.manifest = manifest;
+        this.hashes = new long[count];
+        this.sizes = new long[count];
+    }
+
+    int getFrameCount() {
+        return count;
+    }
+
+    File getDirectory() {
+        return outDir;
+    }
+
+    /** Frames left untouched by the last run because their content had not changed. */
+    int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /** Stops the export after the frames already being written; safe to call from any thread. */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Runs the export and returns how many frames were written or found up to date. */
+    int run(Listener listener) throws IOException {
+        EditorEvents.Export event = EditorEvents.export(EditorEvents.Output.SEQUENCE, outDir.getPath(), 0, 0);
+        Map<String, long[]> previous = readManifest();
+        int permits = workers * 2;
+        Semaphore inFlight = new Semaphore(permits);
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService cpu = Executors.newFixedThreadPool(workers, daemon("sequence-encode"));
+        ExecutorService io = Executors.newFixedThreadPool(IO_THREADS, daemon("sequence-write"));
+        try {
+            for (int i = 0; i < count && !stopped(); i++) {
+                inFlight.acquire();
+                int step = i;
+                cpu.execute(() -> {
+                    // the permit goes back here unless the write task took it over
+                    boolean handedOff = false;
+                    try {
+                        if (stopped()) {
+                            return;
+                        }
+                        BufferedImage img = render.apply(step);
+                        if (step == 0) {
+                            event.columns = img.getWidth();
+                            event.rows = img.getHeight();
+                        }
+                        long hash = PixelArtFileHandler.contentHash(img);
+                        File file = frameFile(step);
+                        long[] known = previous.get(file.getName());
+                        if (known != null && known[0] == hash && file.length() == known[1]) {
+                            hashes[step] = hash;
+                            sizes[step] = known[1];
+                            skipped.incrementAndGet();
+                            report(listener, done.incrementAndGet());
+                            return;
+                        }
+                        byte[] bytes = encode(img);
+                        io.execute(() -> {
+                            try {
+                                if (!stopped()) {
+                                    Files.write(file.toPath(), bytes);
+                                    hashes[step] = hash;
+                                    sizes[step] = bytes.length;
+                                    report(listener, done.incrementAndGet());
+                                }
+                            } catch (Throwable ex) {
+                                failure = ex;
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                        handedOff = true;
+                    } catch (Throwable ex) {
+                        // errors too, e.g. running out of heap on a large frame
+                        failure = ex;
+                    } finally {
+                        if (!handedOff) {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+            // every permit back means every submitted frame has finished or bailed out
+            inFlight.acquire(permits);
+        } catch (InterruptedException ex) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            // not shutdownNow: interrupting a frame mid-decode would close its project archive
+            cpu.shutdown();
+            io.shutdown();
+        }
+        // record whatever finished, so a cancelled or failed export resumes where it stopped
+        writeManifest(previous);
+        if (failure != null) {
+            throw new IOException(failure.getMessage() != null ? failure.getMessage() : failure.toString(), failure);
+        }
+        event.frames = done.get();
+        event.bytes = Arrays.stream(sizes).sum();
+        EditorEvents.finish(event);
+        return done.get();
+    }
+
+    File frameFile(int step) {
+        String idx = String.format("%0" + digits + "d", step + 1);
+        return new File(outDir, prefix + idx + "." + format);
+    }
+
+    private void report(Listener listener, int done) {
+        if (listener != null) {
+            listener.progress(done, count);
+        }
+    }
+
+    private Map<String, long[]> readManifest() {
+        Map<String, long[]> entries = new HashMap<>();
+        if (manifest == null || !manifest.isFile()) {
+            return entries;
+        }
+        try (BufferedReader in = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (!MANIFEST_HEADER.equals(in.readLine())) {
+                return entries;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3) {
+                    entries.put(parts[0], new long[] { Long.parseUnsignedLong(parts[1], 16), Long.parseLong(parts[2]) });
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            entries.clear(); // unreadable manifest just means a full export
+        }
+        return entries;
+    }
+
+    private void writeManifest(Map<String, long[]> previous) throws IOException {
+        if (manifest == null) {
+            return;
+        }
+        Map<String, long[]> current = new HashMap<>();
+        Path tmp = manifest.toPath().resolveSibling(manifest.getName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(MANIFEST_HEADER);
+            out.newLine();
+            for (int i = 0; i < count; i++) {
+                if (sizes[i] == 0)
+                    continue;
+                String name = frameFile(i).getName();
+                current.put(name, new long[] { hashes[i], sizes[i] });
+                out.write(name + " " + Long.toHexString(hashes[i]) + " " + sizes[i]);
+                out.newLine();
+            }
+        }
+        Files.move(tmp, manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!stopped()) {
+            // frames past the new end of the timeline came from an earlier, longer export
+            for (String name : previous.keySet()) {
+                if (!current.containsKey(name)) {
+                    Files.deleteIfExists(new File(outDir, name).toPath());
+                }
+            }
+        }
+    }
+
+    private boolean stopped() {
+        return cancelled || failure != null;
+    }
+
+    private byte[] encode(BufferedImage img) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(img.getWidth() * img.getHeight() + 1024);
+        // in-memory stream avoids ImageIO's temp-file cache, which is shared between threads
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            if (!ImageIO.write(img, format, out)) {
+                throw new IOException("No writer for format " + format);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,264 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Builds a texture atlas from composited timeline frames. Identical frames are
+ * stored once, each sprite is trimmed to its opaque bounding box, and sprites
+ * are placed with a bottom-left skyline packer. The JSON map lists the sprites
+ * and, per timeline step, which sprite to show and for how long.
+ */
+class SpriteSheet {
+    private static final int PADDING = 1;
+    private static final int MAX_SIZE = 16384;
+
+    private static final class Sprite {
+        final int offsetX;
+        final int offsetY;
+        final int w;
+        final int h;
+        final int[] argb;
+        int x;
+        int y;
+
+        Sprite(int offsetX, int offsetY, int w, int h, int[] argb) {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.w = w;
+            this.h = h;
+            this.argb = argb;
+        }
+    }
+
+    private final int cols;
+    private final int rows;
+    private final List<Sprite> sprites = new ArrayList<>();
+    private final List<Integer> timeline = new ArrayList<>();
+    private final Map<Long, List<Integer>> byHash = new HashMap<>();
+    private int atlasW;
+    private int atlasH;
+
+    SpriteSheet(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    int getSpriteCount() {
+        return sprites.size();
+    }
+
+    int getFrameCount() {
+        return timeline.size();
+    }
+
+    /** Appends one timeline step of full-canvas ARGB pixels. */
+    void addFrame(int[] argb) {
+        Sprite trimmed = trim(argb);
+        long hash = Arrays.hashCode(trimmed.argb) * 31L + ((long) trimmed.offsetX << 40 | (long) trimmed.offsetY << 20 | trimmed.w);
+        List<Integer> candidates = byHash.computeIfAbsent(hash, k -> new ArrayList<>(1));
+        for (int idx : candidates) {
+            Sprite s = sprites.get(idx);
+            if (s.offsetX == trimmed.offsetX && s.offsetY == trimmed.offsetY && s.w == trimmed.w && s.h == trimmed.h
+                    && Arrays.equals(s.argb, trimmed.argb)) {
+                timeline.add(idx);
+                return;
+            }
+        }
+        candidates.add(sprites.size());
+        timeline.add(sprites.size());
+        sprites.add(trimmed);
+    }
+
+    /** Packs the sprites and writes the atlas image and its JSON frame map. */
+    void write(File image, File json, int frameDurationMs) throws IOException {
+        pack();
+        BufferedImage atlas = new BufferedImage(Math.max(1, atlasW), Math.max(1, atlasH), BufferedImage.TYPE_INT_ARGB);
+        int[] out = PixelOps.argbBuffer(atlas);
+        int stride = atlas.getWidth();
+        for (Sprite s : sprites) {
+            for (int r = 0; r < s.h; r++) {
+                System.arraycopy(s.argb, r * s.w, out, (s.y + r) * stride + s.x, s.w);
+            }
+        }
+        String format = "png";
+        String name = image.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && dot < name.length() - 1) {
+            format = name.substring(dot + 1);
+        }
+        if (!ImageIO.write(atlas, format, image)) {
+            throw new IOException("No writer for format " + format);
+        }
+        Files.writeString(json.toPath(), toJson(name, frameDurationMs), StandardCharsets.UTF_8);
+    }
+
+    private Sprite trim(int[] argb) {
+        int minX = cols, minY = rows, maxX = -1, maxY = -1;
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                if ((argb[base + c] >>> 24) != 0) {
+                    if (c < minX) minX = c;
+                    if (c > maxX) maxX = c;
+                    minY = Math.min(minY, r);
+                    maxY = r;
+                }
+            }
+        }
+        if (maxX < 0) {
+            return new Sprite(0, 0, 0, 0, new int[0]);
+        }
+        int w = maxX - minX + 1;
+        int h = maxY - minY + 1;
+        int[] pixels = new int[w * h];
+        for (int r = 0; r < h; r++) {
+            System.arraycopy(argb, (minY + r) * cols + minX, pixels, r * w, w);
+        }
+        return new Sprite(minX, minY, w, h, pixels);
+    }
+
+    // Tries a few atlas widths and keeps the layout with the smallest area
+    private void pack() throws IOException {
+        List<Sprite> order = new ArrayList<>();
+        long area = 0;
+        int widest = 0;
+        for (Sprite s : sprites) {
+            if (s.w == 0)
+                continue;
+            order.add(s);
+            area += (long) (s.w + PADDING) * (s.h + PADDING);
+            widest = Math.max(widest, s.w + PADDING);
+        }
+        order.sort((a, b) -> a.h != b.h ? Integer.compare(b.h, a.h) : Integer.compare(b.w, a.w));
+        int start = Integer.highestOneBit(Math.max(1, (int) Math.sqrt((double) area)));
+        int bestW = -1;
+        long bestArea = Long.MAX_VALUE;
+        for (int w = Math.max(start, widest); w <= MAX_SIZE; w = nextWidth(w, widest)) {
+            int h = skyline(order, w, false);
+            long a = (long) w * h;
+            if (h <= MAX_SIZE && a < bestArea) {
+                bestArea = a;
+                bestW = w;
+            }
+            if (h <= w)
+                break; // wider layouts only add empty columns
+        }
+        if (bestW < 0) {
+            throw new IOException("Sprites do not fit in a " + MAX_SIZE + "px atlas");
+        }
+        atlasW = order.isEmpty() ? 0 : bestW;
+        atlasH = order.isEmpty() ? 0 : skyline(order, bestW, true);
+        // trim the unused right edge left by the padding of the last column
+        int usedW = 0;
+        for (Sprite s : order) {
+            usedW = Math.max(usedW, s.x + s.w);
+        }
+        atlasW = Math.min(atlasW, usedW);
+    }
+
+    private static int nextWidth(int w, int widest) {
+        int next = w * 2;
+        return next > MAX_SIZE && w < MAX_SIZE ? MAX_SIZE : Math.max(next, widest);
+    }
+
+    /**
+     * Bottom-left skyline packing into a strip of the given width; returns the
+     * strip height used. Positions are stored on the sprites only when place is set.
+     */
+    private static int skyline(List<Sprite> order, int width, boolean place) {
+        // each segment is {x, y, width} along the current top edge
+        List<int[]> sky = new ArrayList<>();
+        sky.add(new int[] { 0, 0, width });
+        int height = 0;
+        for (Sprite s : order) {
+            int w = s.w + PADDING;
+            int h = s.h + PADDING;
+            int bestIdx = -1;
+            int bestY = Integer.MAX_VALUE;
+            int bestX = 0;
+            for (int i = 0; i < sky.size(); i++) {
+                int x = sky.get(i)[0];
+                if (x + w > width)
+                    break;
+                // segments always span the full width, so x + w <= width keeps j in range
+                int y = 0;
+                for (int j = i, remaining = w; remaining > 0; j++) {
+                    int[] seg = sky.get(j);
+                    y = Math.max(y, seg[1]);
+                    remaining -= seg[2];
+                }
+                if (y + h < bestY) {
+                    bestIdx = i;
+                    bestY = y + h;
+                    bestX = x;
+                }
+            }
+            int y = bestY - h;
+            if (place) {
+                s.x = bestX;
+                s.y = y;
+            }
+            height = Math.max(height, bestY);
+            // raise the skyline under the new sprite
+            int[] top = { bestX, bestY, w };
+            int i = bestIdx;
+            int covered = w;
+            while (covered > 0) {
+                int[] seg = sky.get(i);
+                if (seg[2] <= covered) {
+                    covered -= seg[2];
+                    sky.remove(i);
+                } else {
+                    seg[0] += covered;
+                    seg[2] -= covered;
+                    covered = 0;
+                }
+            }
+            sky.add(bestIdx, top);
+            // merge neighbours at the same height
+            for (int k = sky.size() - 1; k > 0; k--) {
+                int[] a = sky.get(k - 1);
+                int[] b = sky.get(k);
+                if (a[1] == b[1]) {
+                    a[2] += b[2];
+                    sky.remove(k);
+                }
+            }
+        }
+        return height;
+    }
+
+    private String toJson(String imageName, int frameDurationMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"meta\": {\"image\": \"").append(escape(imageName)).append("\", ");
+        sb.append("\"size\": {\"w\": ").append(atlasW).append(", \"h\": ").append(atlasH).append("}, ");
+        sb.append("\"sourceSize\": {\"w\": ").append(cols).append(", \"h\": ").append(rows).append("}},\n");
+        sb.append("  \"sprites\": [");
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite s = sprites.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"x\": ").append(s.x).append(", \"y\": ").append(s.y)
+                    .append(", \"w\": ").append(s.w).append(", \"h\": ").append(s.h)
+                    .append(", \"offsetX\": ").append(s.offsetX).append(", \"offsetY\": ").append(s.offsetY).append('}');
+        }
+        sb.append("\n  ],\n  \"frames\": [");
+        for (int i = 0; i < timeline.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"sprite\": ").append(timeline.get(i)).append(", \"duration\": ").append(frameDurationMs).append('}');
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
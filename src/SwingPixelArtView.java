@@ -2,7 +2,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.IntConsumer;
 import java.util.function.IntPredicate;
@@ -40,6 +43,8 @@ public class SwingPixelArtView implements PixelArtView {
     private Runnable redoCallback;
     private IntConsumer frameStepCallback;
     private Runnable toggleOnionCallback;
+    private BooleanSupplier cancelCallback;
+    private Runnable closeCallback;
 
     // Controllers
     private PixelCanvas canvasController;
@@ -55,7 +60,17 @@ public class SwingPixelArtView implements PixelArtView {
     @Override
     public void initialize() {
         frame = new JFrame("Pixel Art");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (closeCallback != null) {
+                    closeCallback.run();
+                } else {
+                    System.exit(0);
+                }
+            }
+        });
         frame.getContentPane().setBackground(PixelConstants.BG);
 
         // Initialize components
@@ -140,6 +155,9 @@ public class SwingPixelArtView implements PixelArtView {
         root.getActionMap().put("toggleConsole", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
+                if (cancelCallback != null && cancelCallback.getAsBoolean()) {
+                    return;
+                }
                 if (console != null && console.isFocusOwner()) {
                     if (canvasHolder != null) {
                         canvasHolder.requestFocusInWindow();
@@ -400,6 +418,17 @@ public class SwingPixelArtView implements PixelArtView {
         }
     }
 
+    @Override
+    public String getConsoleStatus() {
+        return console != null ? console.getStatus() : null;
+    }
+
+    @Override
+    public void setConsoleProgress(int percent) {
+        if (console != null)
+            console.setProgress(percent);
+    }
+
     @Override
     public void showAnimationPanel(boolean visible) {
         if (animationSlot != null) {
@@ -486,6 +515,16 @@ public class SwingPixelArtView implements PixelArtView {
         this.toggleOnionCallback = callback;
     }
 
+    @Override
+    public void setCancelCallback(BooleanSupplier callback) {
+        this.cancelCallback = callback;
+    }
+
+    @Override
+    public void setCloseCallback(Runnable callback) {
+        this.closeCallback = callback;
+    }
+
     @Override
     public void setCanvasController(Object canvasController) {
         this.canvasController = (PixelCanvas) canvasController;
@@ -571,27 +610,7 @@ public class SwingPixelArtView implements PixelArtView {
             return null;
         int rows = canvasController.getRows();
         int cols = canvasController.getColumns();
-        BufferedImage img = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_ARGB);
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                Color color = null;
-                for (int l = layerData.length - 1; l >= 0; l--) {
-                    if (layerData[l] == null)
-                        continue;
-                    Color cc = layerData[l][r][c];
-                    if (cc != null) {
-                        color = cc;
-                        break;
-                    }
-                }
-                if (color == null) {
-                    img.setRGB(c, r, 0x00000000);
-                } else {
-                    img.setRGB(c, r, color.getRGB());
-                }
-            }
-        }
-        return img;
+        return PixelOps.compositeImage(layerData, cols, rows);
     }
 
     @Override